@@ -0,0 +1,221 @@
+/**
+ *   Copyright 2016 Royce Remulla
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+package org.example.store;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInput;
+import java.io.DataInputStream;
+import java.io.DataOutput;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.util.Map;
+
+import org.example.model.Device;
+
+/**
+ * A change to the device list as it is written to the event log.
+ *
+ * Events carry the resulting state rather than the operation (a toggle
+ * records the new status) so replaying the same event twice is harmless.
+ *
+ * @author royce
+ */
+public final class DeviceEvent {
+
+
+    public enum Type {
+        ADD, REMOVE, TOGGLE
+    }
+
+
+    private final Type type;
+    private final int id;
+    private final String name;
+    private final String deviceType;
+    private final String status;
+    private final String description;
+
+
+    private DeviceEvent(final Type type, final int id, final String name,
+            final String deviceType, final String status,
+            final String description) {
+        this.type = type;
+        this.id = id;
+        this.name = name;
+        this.deviceType = deviceType;
+        this.status = status;
+        this.description = description;
+    }
+
+
+    public static DeviceEvent added(final Device device) {
+        return new DeviceEvent(
+            Type.ADD,
+            device.getId(),
+            device.getName(),
+            device.getType(),
+            device.getStatus(),
+            device.getDescription());
+    }
+
+    public static DeviceEvent removed(final int id) {
+        return new DeviceEvent(Type.REMOVE, id, null, null, null, null);
+    }
+
+    public static DeviceEvent toggled(final int id, final String status) {
+        return new DeviceEvent(Type.TOGGLE, id, null, null, status, null);
+    }
+
+    public Type getType() {
+        return type;
+    }
+
+    public int getId() {
+        return id;
+    }
+
+    /**
+     * Build the device described by an ADD event.
+     *
+     * @return
+     */
+    public Device toDevice() {
+        final Device device = new Device();
+        device.setId(id);
+        device.setName(name);
+        device.setType(deviceType);
+        device.setStatus(status);
+        device.setDescription(description);
+        return device;
+    }
+
+    /**
+     * @return the binary form of this event.
+     */
+    public byte[] toBytes() {
+        try {
+            final ByteArrayOutputStream bytes = new ByteArrayOutputStream(64);
+            final DataOutputStream out = new DataOutputStream(bytes);
+            out.writeByte(type.ordinal());
+            out.writeInt(id);
+            switch (type) {
+                case ADD:
+                    writeDevice(out, toDevice());
+                    break;
+                case TOGGLE:
+                    writeString(out, status);
+                    break;
+                default:
+                    break;
+            }
+            out.flush();
+            return bytes.toByteArray();
+        } catch (final IOException ex) {
+            throw new IllegalStateException(ex);
+        }
+    }
+
+    /**
+     * Read an event written by {@link #toBytes()}.
+     *
+     * @param data
+     * @return
+     * @throws IOException when the data is not a valid event.
+     */
+    public static DeviceEvent fromBytes(final byte[] data) throws IOException {
+        final DataInputStream in = new DataInputStream(
+            new ByteArrayInputStream(data));
+        final int ordinal = in.readByte();
+        if (ordinal < 0 || ordinal >= Type.values().length) {
+            throw new IOException("Unknown event type: " + ordinal);
+        }
+        final Type type = Type.values()[ordinal];
+        final int id = in.readInt();
+        switch (type) {
+            case ADD:
+                final Device device = readDevice(in);
+                return new DeviceEvent(
+                    type,
+                    id,
+                    device.getName(),
+                    device.getType(),
+                    device.getStatus(),
+                    device.getDescription());
+            case TOGGLE:
+                return toggled(id, readString(in));
+            default:
+                return removed(id);
+        }
+    }
+
+    /**
+     * Apply this event to the device map.
+     *
+     * @param devices
+     */
+    void applyTo(final Map<Integer, Device> devices) {
+        switch (type) {
+            case ADD:
+                devices.put(id, toDevice());
+                break;
+            case REMOVE:
+                devices.remove(id);
+                break;
+            case TOGGLE:
+                final Device device = devices.get(id);
+                if (device != null) {
+                    device.setStatus(status);
+                }
+                break;
+            default:
+                break;
+        }
+    }
+
+    /**
+     * Write the device fields except the id.
+     */
+    static void writeDevice(final DataOutput out, final Device device)
+            throws IOException {
+        writeString(out, device.getName());
+        writeString(out, device.getType());
+        writeString(out, device.getStatus());
+        writeString(out, device.getDescription());
+    }
+
+    static Device readDevice(final DataInput in) throws IOException {
+        final Device device = new Device();
+        device.setName(readString(in));
+        device.setType(readString(in));
+        device.setStatus(readString(in));
+        device.setDescription(readString(in));
+        return device;
+    }
+
+    private static void writeString(final DataOutput out, final String value)
+            throws IOException {
+        out.writeBoolean(value != null);
+        if (value != null) {
+            out.writeUTF(value);
+        }
+    }
+
+    private static String readString(final DataInput in) throws IOException {
+        return in.readBoolean() ? in.readUTF() : null;
+    }
+
+}
@@ -0,0 +1,381 @@
+/**
+ *   Copyright 2016 Royce Remulla
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+package org.example.store;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+import java.util.zip.CRC32;
+
+import org.example.model.Device;
+
+/**
+ * Durable device list backed by a snapshot file and a memory mapped,
+ * append-only event log.
+ *
+ * {@link #append(DeviceEvent)} only queues the event, a single writer thread
+ * drains the queue, writes the whole batch to the log and forces it to disk
+ * once per batch. The writer keeps its own copy of the device list and
+ * rewrites the snapshot from it (then clears the log) when the log is full or
+ * every {@link #COMPACT_INTERVAL_MS}.
+ *
+ * Log record layout: <code>[int length][int crc32][payload]</code>, a zero
+ * length marks the end of the log.
+ *
+ * @author royce
+ */
+public class DeviceStore {
+
+
+    private static final Logger LOGGER = Logger
+        .getLogger(DeviceStore.class.getName());
+
+
+    static final String SNAPSHOT_FILE = "devices.snapshot";
+    static final String LOG_FILE = "devices.log";
+
+    static final int SNAPSHOT_VERSION = 1;
+    static final int RECORD_HEADER = 8;
+
+    static final long DEFAULT_LOG_SIZE = 4L * 1024 * 1024;
+    static final long COMPACT_INTERVAL_MS = TimeUnit.MINUTES.toMillis(5);
+    static final int MAX_BATCH = 512;
+    static final long RETRY_DELAY_MS = 1000;
+
+
+    private final File directory;
+    private final long logSize;
+
+    private final BlockingQueue<DeviceEvent> queue =
+            new LinkedBlockingQueue<>();
+
+    /** Guarded by this, written by the writer thread. */
+    private final Map<Integer, Device> devices = new LinkedHashMap<>();
+
+    /** Guarded by this, written by the writer thread. */
+    private int nextId;
+
+    private RandomAccessFile logFile;
+    private MappedByteBuffer log;
+
+    private volatile Thread writer;
+    private volatile boolean running;
+
+
+    public DeviceStore(final File directory) {
+        this(directory, DEFAULT_LOG_SIZE);
+    }
+
+    public DeviceStore(final File directory, final long logSize) {
+        this.directory = directory;
+        this.logSize = logSize;
+    }
+
+
+    /**
+     * Load the snapshot, replay the log and start the writer thread.
+     *
+     * @param threadFactory factory for the writer thread.
+     * @throws IOException
+     */
+    public synchronized void open(final ThreadFactory threadFactory)
+            throws IOException {
+        if (!directory.isDirectory() && !directory.mkdirs()) {
+            throw new IOException("Cannot create " + directory);
+        }
+        readSnapshot();
+        logFile = new RandomAccessFile(new File(directory, LOG_FILE), "rw");
+        mapLog(Math.max(logSize, logFile.length()));
+        replayLog();
+
+        running = true;
+        writer = threadFactory.newThread(new Runnable() {
+
+            @Override
+            public void run() {
+                writeLoop();
+            }
+        });
+        writer.setName("DeviceStore writer");
+        writer.start();
+    }
+
+    /**
+     * Flush pending events, compact and release the log.
+     */
+    public void close() {
+        final Thread thread = writer;
+        if (thread == null) {
+            return;
+        }
+        writer = null;
+        running = false;
+        thread.interrupt();
+        try {
+            thread.join(TimeUnit.SECONDS.toMillis(10));
+        } catch (final InterruptedException ex) {
+            Thread.currentThread().interrupt();
+        }
+        try {
+            logFile.close();
+        } catch (final IOException ex) {
+            LOGGER.log(Level.SEVERE, null, ex);
+        }
+    }
+
+    /**
+     * @return the devices recovered by {@link #open(ThreadFactory)}, in
+     *         insertion order.
+     */
+    public synchronized List<Device> getDevices() {
+        final List<Device> copy = new ArrayList<>(devices.size());
+        for (final Device device : devices.values()) {
+            final Device clone = new Device();
+            clone.setId(device.getId());
+            clone.setName(device.getName());
+            clone.setType(device.getType());
+            clone.setStatus(device.getStatus());
+            clone.setDescription(device.getDescription());
+            copy.add(clone);
+        }
+        return copy;
+    }
+
+    /**
+     * @return the id to assign to the next device.
+     */
+    public synchronized int getNextId() {
+        return nextId;
+    }
+
+    /**
+     * Queue an event for writing, never blocks.
+     *
+     * @param event
+     */
+    public void append(final DeviceEvent event) {
+        queue.offer(event);
+    }
+
+    private void writeLoop() {
+        final List<DeviceEvent> batch = new ArrayList<>(MAX_BATCH);
+        long lastCompaction = System.currentTimeMillis();
+        while (running || !queue.isEmpty() || !batch.isEmpty()) {
+            try {
+                if (batch.isEmpty()) {
+                    final DeviceEvent first = queue.poll(1, TimeUnit.SECONDS);
+                    if (first != null) {
+                        batch.add(first);
+                    }
+                } else {
+                    // events kept from a failed write
+                    TimeUnit.MILLISECONDS.sleep(RETRY_DELAY_MS);
+                }
+                if (!batch.isEmpty()) {
+                    queue.drainTo(batch, MAX_BATCH - batch.size());
+                    writeBatch(batch);
+                }
+                final long now = System.currentTimeMillis();
+                if (now - lastCompaction >= COMPACT_INTERVAL_MS) {
+                    if (log.position() > 0) {
+                        compact();
+                    }
+                    lastCompaction = now;
+                }
+            } catch (final InterruptedException ex) {
+                running = false;
+            } catch (final IOException | RuntimeException ex) {
+                if (running) {
+                    LOGGER.log(Level.SEVERE, "Device store write failed, "
+                            + batch.size() + " events kept for retry", ex);
+                } else {
+                    LOGGER.log(Level.SEVERE, "Device store write failed, "
+                            + batch.size() + " events lost", ex);
+                    batch.clear();
+                }
+            }
+        }
+        try {
+            compact();
+        } catch (final IOException ex) {
+            LOGGER.log(Level.SEVERE, null, ex);
+        }
+    }
+
+    /**
+     * Write and apply the events of the batch, removing them from it as they
+     * are written. An event that cannot be encoded is logged and skipped; on
+     * an I/O failure the events not written yet stay in the batch.
+     */
+    private void writeBatch(final List<DeviceEvent> batch) throws IOException {
+        int written = 0;
+        try {
+            for (final DeviceEvent event : batch) {
+                final byte[] payload;
+                try {
+                    payload = event.toBytes();
+                } catch (final RuntimeException ex) {
+                    LOGGER.log(Level.WARNING, "Skipping unwritable event", ex);
+                    written++;
+                    continue;
+                }
+                if (log.remaining() < RECORD_HEADER + payload.length
+                        + RECORD_HEADER) {
+                    log.force();
+                    compact();
+                    if (log.remaining() < RECORD_HEADER + payload.length
+                            + RECORD_HEADER) {
+                        mapLog(log.capacity() * 2L);
+                    }
+                }
+                final CRC32 crc = new CRC32();
+                crc.update(payload);
+                log.putInt(payload.length);
+                log.putInt((int) crc.getValue());
+                log.put(payload);
+                synchronized (this) {
+                    apply(event);
+                }
+                written++;
+            }
+        } finally {
+            batch.subList(0, written).clear();
+            log.putInt(log.position(), 0);
+        }
+        log.force();
+    }
+
+    /**
+     * Write a new snapshot from the current device list and clear the log.
+     * Events are idempotent so a crash between the two steps only replays
+     * events already in the snapshot.
+     */
+    private synchronized void compact() throws IOException {
+        final File target = new File(directory, SNAPSHOT_FILE);
+        final File temp = new File(directory, SNAPSHOT_FILE + ".tmp");
+        try (DataOutputStream out = new DataOutputStream(
+            new BufferedOutputStream(new FileOutputStream(temp)))) {
+            out.writeInt(SNAPSHOT_VERSION);
+            out.writeInt(nextId);
+            out.writeInt(devices.size());
+            for (final Device device : devices.values()) {
+                out.writeInt(device.getId());
+                DeviceEvent.writeDevice(out, device);
+            }
+        }
+        Files.move(
+            temp.toPath(),
+            target.toPath(),
+            StandardCopyOption.REPLACE_EXISTING,
+            StandardCopyOption.ATOMIC_MOVE);
+
+        final int used = log.position();
+        for (int i = 0; i < used + RECORD_HEADER && i < log.capacity(); i++) {
+            log.put(i, (byte) 0);
+        }
+        log.position(0);
+        log.force();
+    }
+
+    private void readSnapshot() throws IOException {
+        final File file = new File(directory, SNAPSHOT_FILE);
+        if (!file.isFile()) {
+            return;
+        }
+        try (DataInputStream in = new DataInputStream(
+            new BufferedInputStream(new FileInputStream(file)))) {
+            final int version = in.readInt();
+            if (version != SNAPSHOT_VERSION) {
+                throw new IOException("Unsupported snapshot version: "
+                        + version);
+            }
+            nextId = in.readInt();
+            final int count = in.readInt();
+            for (int i = 0; i < count; i++) {
+                final int id = in.readInt();
+                final Device device = DeviceEvent.readDevice(in);
+                device.setId(id);
+                devices.put(id, device);
+            }
+        }
+    }
+
+    /**
+     * Apply every valid record, stopping at the end marker or at the first
+     * torn record, and leave the log positioned after the last good one.
+     */
+    private void replayLog() {
+        log.position(0);
+        while (log.remaining() >= RECORD_HEADER) {
+            final int start = log.position();
+            final int length = log.getInt();
+            final int checksum = log.getInt();
+            if (length <= 0 || length > log.remaining()) {
+                log.position(start);
+                break;
+            }
+            final byte[] payload = new byte[length];
+            log.get(payload);
+            final CRC32 crc = new CRC32();
+            crc.update(payload);
+            if ((int) crc.getValue() != checksum) {
+                LOGGER.warning("Device log truncated at offset " + start);
+                log.position(start);
+                break;
+            }
+            try {
+                apply(DeviceEvent.fromBytes(payload));
+            } catch (final IOException ex) {
+                LOGGER.log(Level.WARNING, "Skipping unreadable event", ex);
+            }
+        }
+        log.putInt(log.position(), 0);
+    }
+
+    private void apply(final DeviceEvent event) {
+        event.applyTo(devices);
+        if (event.getType() == DeviceEvent.Type.ADD) {
+            nextId = Math.max(nextId, event.getId() + 1);
+        }
+    }
+
+    private void mapLog(final long size) throws IOException {
+        final int position = log == null ? 0 : log.position();
+        log = logFile.getChannel().map(FileChannel.MapMode.READ_WRITE, 0, size);
+        log.position(position);
+    }
+
+}
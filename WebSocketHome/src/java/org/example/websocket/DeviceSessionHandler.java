@@ -15,41 +15,104 @@
  */
 package org.example.websocket;
 
+import java.io.File;
 import java.io.IOException;
 import java.util.ArrayList;
-import java.util.HashSet;
+import java.util.LinkedHashMap;
 import java.util.List;
-import java.util.Set;
-import java.util.logging.Level;
-import java.util.logging.Logger;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
 
+import javax.annotation.PostConstruct;
+import javax.annotation.PreDestroy;
+import javax.annotation.Resource;
+import javax.enterprise.concurrent.ManagedThreadFactory;
 import javax.enterprise.context.ApplicationScoped;
-import javax.json.JsonObject;
 import javax.json.spi.JsonProvider;
 import javax.websocket.Session;
 
 import org.example.model.Device;
+import org.example.store.DeviceEvent;
+import org.example.store.DeviceStore;
 
 /**
+ * Holds the devices and the connected sessions.
+ *
+ * Each device is serialized once and kept until its state changes, a new
+ * session receives all devices in one "snapshot" message built from those
+ * cached strings. Outgoing messages are queued per session and sent
+ * asynchronously, see {@link SessionSender}.
+ *
+ * Changes are written behind to a {@link DeviceStore} so devices survive a
+ * redeploy. The store directory defaults to <code>~/.websockethome</code> and
+ * can be set with the <code>websockethome.store.dir</code> system property.
+ *
  * @author royce
  */
 @ApplicationScoped
 public class DeviceSessionHandler {
 
 
+    /** Provider lookup goes through the service loader, do it only once. */
+    private static final JsonProvider PROVIDER = JsonProvider.provider();
+
+    static final String STORE_DIR_PROPERTY = "websockethome.store.dir";
+
+
+    @Resource
+    private ManagedThreadFactory threadFactory;
+
+    private DeviceStore store;
+
+
     private int deviceId = 0;
 
-    private final Set<Session> sessions = new HashSet<>();
-    private final Set<Device> devices = new HashSet<>();
+    private final Map<Session, SessionSender> sessions =
+            new ConcurrentHashMap<>();
 
+    /** Guarded by this. Insertion order is the order shown to clients. */
+    private final Map<Integer, Device> devices = new LinkedHashMap<>();
 
-    public void addSession(final Session session) {
-        sessions.add(session);
+    /** Guarded by this. Serialized "add" message per device id. */
+    private final Map<Integer, String> deviceJson = new LinkedHashMap<>();
 
-        for (final Device device : devices) {
-            final JsonObject addMessage = createAddMessage(device);
-            sendToSession(session, addMessage);
+    /** Guarded by this. Cached snapshot message, null when stale. */
+    private String snapshot;
+
+
+    /**
+     * Load the devices saved by the previous deployment.
+     *
+     * @throws IllegalStateException when the store cannot be opened.
+     */
+    @PostConstruct
+    public synchronized void init() {
+        final File directory = new File(System.getProperty(
+            STORE_DIR_PROPERTY,
+            System.getProperty("user.home") + File.separator
+                    + ".websockethome"));
+        store = new DeviceStore(directory);
+        try {
+            store.open(threadFactory);
+        } catch (final IOException ex) {
+            throw new IllegalStateException("Cannot open device store", ex);
+        }
+        for (final Device device : store.getDevices()) {
+            devices.put(device.getId(), device);
+            deviceJson.put(device.getId(), createAddMessage(device));
         }
+        deviceId = store.getNextId();
+    }
+
+    @PreDestroy
+    public void destroy() {
+        store.close();
+    }
+
+    public synchronized void addSession(final Session session) {
+        final SessionSender sender = new SessionSender(session);
+        sessions.put(session, sender);
+        sender.send(getSnapshot());
     }
 
     public void removeSession(final Session session) {
@@ -61,8 +124,8 @@ public class DeviceSessionHandler {
      *
      * @return
      */
-    public List<Device> getDevices() {
-        return new ArrayList<>(devices);
+    public synchronized List<Device> getDevices() {
+        return new ArrayList<>(devices.values());
     }
 
     /**
@@ -70,11 +133,14 @@ public class DeviceSessionHandler {
      *
      * @param device
      */
-    public void addDevice(final Device device) {
+    public synchronized void addDevice(final Device device) {
         device.setId(deviceId);
-        devices.add(device);
+        devices.put(deviceId, device);
         deviceId++;
-        final JsonObject addMessage = createAddMessage(device);
+        final String addMessage = createAddMessage(device);
+        deviceJson.put(device.getId(), addMessage);
+        snapshot = null;
+        store.append(DeviceEvent.added(device));
         sendToAllConnectedSessions(addMessage);
     }
 
@@ -83,16 +149,18 @@ public class DeviceSessionHandler {
      *
      * @param id
      */
-    public void removeDevice(final int id) {
-        final Device device = getDeviceById(id);
+    public synchronized void removeDevice(final int id) {
+        final Device device = devices.remove(id);
         if (device != null) {
-            devices.remove(device);
-            final JsonProvider provider = JsonProvider.provider();
-            final JsonObject removeMessage = provider
+            deviceJson.remove(id);
+            snapshot = null;
+            store.append(DeviceEvent.removed(id));
+            final String removeMessage = PROVIDER
                 .createObjectBuilder()
                 .add("action", "remove")
                 .add("id", id)
-                .build();
+                .build()
+                .toString();
             sendToAllConnectedSessions(removeMessage);
         }
     }
@@ -102,38 +170,51 @@ public class DeviceSessionHandler {
      *
      * @param id
      */
-    public void toggleDevice(final int id) {
-        final JsonProvider provider = JsonProvider.provider();
-        final Device device = getDeviceById(id);
+    public synchronized void toggleDevice(final int id) {
+        final Device device = devices.get(id);
         if (device != null) {
             if ("On".equals(device.getStatus())) {
                 device.setStatus("Off");
             } else {
                 device.setStatus("On");
             }
-            final JsonObject updateDevMessage = provider
+            deviceJson.put(id, createAddMessage(device));
+            snapshot = null;
+            store.append(DeviceEvent.toggled(id, device.getStatus()));
+            final String updateDevMessage = PROVIDER
                 .createObjectBuilder()
                 .add("action", "toggle")
                 .add("id", device.getId())
                 .add("status", device.getStatus())
-                .build();
+                .build()
+                .toString();
             sendToAllConnectedSessions(updateDevMessage);
         }
     }
 
     /**
-     * Retrieve a device with a specific identifier.
+     * Build the message carrying every device, reusing the cached per device
+     * JSON. Caller must hold the lock.
      *
-     * @param id
      * @return
      */
-    private Device getDeviceById(final int id) {
-        for (final Device device : devices) {
-            if (device.getId() == id) {
-                return device;
+    private String getSnapshot() {
+        if (snapshot == null) {
+            final StringBuilder builder = new StringBuilder(
+                32 + deviceJson.size() * 128);
+            builder.append("{\"action\":\"snapshot\",\"devices\":[");
+            boolean first = true;
+            for (final String json : deviceJson.values()) {
+                if (!first) {
+                    builder.append(',');
+                }
+                builder.append(json);
+                first = false;
             }
+            builder.append("]}");
+            snapshot = builder.toString();
         }
-        return null;
+        return snapshot;
     }
 
     /**
@@ -142,9 +223,8 @@ public class DeviceSessionHandler {
      * @param device
      * @return
      */
-    private JsonObject createAddMessage(final Device device) {
-        final JsonProvider provider = JsonProvider.provider();
-        final JsonObject addMessage = provider
+    private String createAddMessage(final Device device) {
+        return PROVIDER
             .createObjectBuilder()
             .add("action", "add")
             .add("id", device.getId())
@@ -152,37 +232,22 @@ public class DeviceSessionHandler {
             .add("type", device.getType())
             .add("status", device.getStatus())
             .add("description", device.getDescription())
-            .build();
-        return addMessage;
-    }
-
-    /**
-     * Send an event message to all connected clients.
-     *
-     * @param message
-     */
-    private void sendToAllConnectedSessions(final JsonObject message) {
-        for (final Session session : sessions) {
-            sendToSession(session, message);
-        }
+            .build()
+            .toString();
     }
 
     /**
-     * Send an event message to a client.
+     * Queue an event message for all connected clients.
      *
-     * @param session
      * @param message
      */
-    private void sendToSession(final Session session,
-                               final JsonObject message) {
-        try {
-            session.getBasicRemote().sendText(message.toString());
-        } catch (final IOException ex) {
-            sessions.remove(session);
-            Logger.getLogger(DeviceSessionHandler.class.getName()).log(
-                Level.SEVERE,
-                null,
-                ex);
+    private void sendToAllConnectedSessions(final String message) {
+        for (final SessionSender sender : sessions.values()) {
+            if (sender.getSession().isOpen()) {
+                sender.send(message);
+            } else {
+                sessions.remove(sender.getSession());
+            }
         }
     }
 
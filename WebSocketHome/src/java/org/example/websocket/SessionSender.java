@@ -0,0 +1,131 @@
+/**
+ *   Copyright 2016 Royce Remulla
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+package org.example.websocket;
+
+import java.io.IOException;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+import javax.websocket.CloseReason;
+import javax.websocket.SendHandler;
+import javax.websocket.SendResult;
+import javax.websocket.Session;
+
+/**
+ * Outgoing message queue of a single session.
+ *
+ * Messages are sent through the async remote one at a time, the next message
+ * is sent from the completion handler of the previous one so the caller never
+ * blocks on a slow client. A client that falls more than
+ * {@link #MAX_PENDING} messages behind is disconnected, it will receive a
+ * fresh snapshot when it reconnects.
+ *
+ * @author royce
+ */
+public class SessionSender implements SendHandler {
+
+
+    private static final Logger LOGGER = Logger
+        .getLogger(SessionSender.class.getName());
+
+
+    /** Maximum number of queued messages before the session is dropped. */
+    static final int MAX_PENDING = 1024;
+
+
+    private final Session session;
+
+    private final Queue<String> pending = new ConcurrentLinkedQueue<>();
+    private final AtomicInteger pendingCount = new AtomicInteger();
+    private final AtomicBoolean sending = new AtomicBoolean();
+
+
+    public SessionSender(final Session session) {
+        this.session = session;
+    }
+
+
+    public Session getSession() {
+        return session;
+    }
+
+    /**
+     * Queue a message for this session and start sending if idle.
+     *
+     * @param message serialized JSON message.
+     */
+    public void send(final String message) {
+        if (pendingCount.incrementAndGet() > MAX_PENDING) {
+            pendingCount.decrementAndGet();
+            close("Too many pending messages");
+            return;
+        }
+        pending.offer(message);
+        sendNext();
+    }
+
+    @Override
+    public void onResult(final SendResult result) {
+        if (!result.isOK()) {
+            LOGGER.log(Level.WARNING, null, result.getException());
+            pending.clear();
+            pendingCount.set(0);
+            close("Send failed");
+            return;
+        }
+        sending.set(false);
+        sendNext();
+    }
+
+    /**
+     * Send the head of the queue unless a send is already in flight.
+     */
+    private void sendNext() {
+        while (!pending.isEmpty() && sending.compareAndSet(false, true)) {
+            final String message = pending.poll();
+            if (message == null) {
+                sending.set(false);
+                continue;
+            }
+            pendingCount.decrementAndGet();
+            if (!session.isOpen()) {
+                sending.set(false);
+                pending.clear();
+                pendingCount.set(0);
+                return;
+            }
+            session.getAsyncRemote().sendText(message, this);
+            return;
+        }
+    }
+
+    private void close(final String reason) {
+        try {
+            if (session.isOpen()) {
+                session.close(new CloseReason(
+                    CloseReason.CloseCodes.TRY_AGAIN_LATER,
+                    reason));
+            }
+        } catch (final IOException ex) {
+            LOGGER.log(Level.SEVERE, null, ex);
+        }
+    }
+
+}
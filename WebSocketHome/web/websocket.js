@@ -22,6 +22,15 @@ socket.onmessage = onMessage;
 /** */
 function onMessage(event) {
     var device = JSON.parse(event.data);
+    if (device.action === "snapshot") {
+        var content = document.getElementById("content");
+        while (content.firstChild) {
+            content.removeChild(content.firstChild);
+        }
+        for (var i = 0; i < device.devices.length; i++) {
+            printDeviceElement(device.devices[i]);
+        }
+    }
     if (device.action === "add") {
         printDeviceElement(device);
     }
@@ -7,65 +7,63 @@
  */
 package com.forest.shipment.ejb;
 
-import com.forest.entity.CustomerOrder;
-import java.util.Enumeration;
+import com.forest.events.OrderSummary;
 import java.util.LinkedHashMap;
 import java.util.Map;
 import java.util.logging.Level;
 import java.util.logging.Logger;
-import javax.annotation.Resource;
+import javax.ejb.EJB;
 import javax.ejb.Stateless;
-import javax.inject.Inject;
-import javax.jms.JMSConsumer;
-import javax.jms.JMSContext;
-import javax.jms.JMSException;
-import javax.jms.Message;
-import javax.jms.Queue;
-import javax.jms.QueueBrowser;
 
+/**
+ * Pending orders, read from PendingOrderView rather than by browsing the
+ * order queue.
+ */
 @Stateless
 public class OrderBrowser {
 
     private static final Logger logger = Logger.getLogger(OrderBrowser.class.getCanonicalName());
-    @Inject
-    private JMSContext context;
-    @Resource(mappedName = "java:global/jms/OrderQueue")
-    private Queue queue;
-    private QueueBrowser browser;
-
-    public Map<String, CustomerOrder> getOrders() {
-        browser = context.createBrowser(queue);
-        Enumeration msgs;
-        try {
-            msgs = browser.getEnumeration();
-
-            if (!msgs.hasMoreElements()) {
-                logger.log(Level.INFO, "No messages on the queue!");
-            } else {
-
-                Map<String, CustomerOrder> result = new LinkedHashMap<>();
-                while (msgs.hasMoreElements()) {
-                    Message msg = (Message) msgs.nextElement();
+    @EJB
+    private PendingOrderView view;
 
-                    logger.log(Level.INFO, "Message ID: {0}", msg.getJMSMessageID());
-                    CustomerOrder order = msg.getBody(CustomerOrder.class);
-                    result.put(msg.getJMSMessageID(), order);
-                }
-                return result;
-            }
-        } catch (JMSException ex) {
-            Logger.getLogger(OrderBrowser.class.getName()).log(Level.SEVERE, null, ex);
+    /**
+     * @param first index of the first pending order
+     * @param max the page size
+     * @return a page of pending orders by order id, or null if there are none
+     */
+    public Map<String, OrderSummary> getOrders(int first, int max) {
+        Map<String, OrderSummary> result = new LinkedHashMap<>();
+        for (OrderSummary order : view.getOrders(PendingOrderView.READY_TO_SHIP, first, max)) {
+            result.put(String.valueOf(order.getOrderID()), order);
         }
+        if (result.isEmpty()) {
+            logger.log(Level.INFO, "No pending orders!");
+            return null;
+        }
+        return result;
+    }
 
-        return null;
+    public int countOrders() {
+        return view.count(PendingOrderView.READY_TO_SHIP);
     }
 
-    public CustomerOrder processOrder(String OrderMessageID) {
+    public OrderSummary processOrder(String orderId) {
 
-        logger.log(Level.INFO, "Processing Order {0}", OrderMessageID);
-        JMSConsumer consumer = context.createConsumer(queue, "JMSMessageID='" + OrderMessageID + "'");
+        logger.log(Level.INFO, "Processing Order {0}", orderId);
+        try {
+            return view.remove(Integer.parseInt(orderId));
+        } catch (NumberFormatException e) {
+            logger.log(Level.WARNING, "Invalid order id {0}", orderId);
+            return null;
+        }
+    }
 
-        CustomerOrder order = consumer.receiveBody(CustomerOrder.class, 1);
-        return order;
+    /**
+     * Puts back an order taken by processOrder whose update failed.
+     * @param order the order
+     */
+    public void restoreOrder(OrderSummary order) {
+        logger.log(Level.INFO, "Restoring Order {0}", order.getOrderID());
+        view.update(order);
     }
 }
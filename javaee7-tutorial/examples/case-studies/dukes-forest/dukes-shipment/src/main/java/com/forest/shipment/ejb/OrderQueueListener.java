@@ -0,0 +1,51 @@
+/**
+ * Copyright (c) 2014 Oracle and/or its affiliates. All rights reserved.
+ *
+ * You may not modify, use, reproduce, or distribute this software except in
+ * compliance with  the terms of the License at:
+ * http://java.net/projects/javaeetutorial/pages/BerkeleyLicense
+ */
+package com.forest.shipment.ejb;
+
+import com.forest.events.OrderSummary;
+import com.forest.events.OrderSummaryCodec;
+import java.io.IOException;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+import javax.ejb.ActivationConfigProperty;
+import javax.ejb.EJB;
+import javax.ejb.MessageDriven;
+import javax.jms.JMSException;
+import javax.jms.Message;
+import javax.jms.MessageListener;
+
+/**
+ * Consumes the order summaries the Store sends to the order queue, encoded
+ * by OrderSummaryCodec, and keeps PendingOrderView up to date. An order
+ * sent again with another status (for instance cancelled in the Store)
+ * leaves the view.
+ *
+ * @author markito
+ */
+@MessageDriven(mappedName = "java:global/jms/OrderQueue", activationConfig = {
+    @ActivationConfigProperty(propertyName = "destinationType",
+            propertyValue = "javax.jms.Queue")
+})
+public class OrderQueueListener implements MessageListener {
+
+    private static final Logger logger = Logger.getLogger(OrderQueueListener.class.getCanonicalName());
+    @EJB
+    private PendingOrderView view;
+
+    @Override
+    public void onMessage(Message msg) {
+        try {
+            OrderSummary order = OrderSummaryCodec.decode(msg.getBody(byte[].class));
+            logger.log(Level.INFO, "Order {0} received, status {1}",
+                    new Object[]{order.getOrderID(), order.getStatusID()});
+            view.update(order);
+        } catch (JMSException | IOException ex) {
+            logger.log(Level.SEVERE, "Cannot read order message", ex);
+        }
+    }
+}
@@ -0,0 +1,230 @@
+/**
+ * Copyright (c) 2014 Oracle and/or its affiliates. All rights reserved.
+ *
+ * You may not modify, use, reproduce, or distribute this software except in
+ * compliance with  the terms of the License at:
+ * http://java.net/projects/javaeetutorial/pages/BerkeleyLicense
+ */
+package com.forest.shipment.ejb;
+
+import com.forest.entity.CustomerOrder;
+import com.forest.events.OrderSummary;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.NavigableSet;
+import java.util.Set;
+import java.util.TreeSet;
+import java.util.concurrent.locks.ReadWriteLock;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+import javax.ejb.ConcurrencyManagement;
+import javax.ejb.ConcurrencyManagementType;
+import javax.ejb.Singleton;
+import javax.ws.rs.client.Client;
+import javax.ws.rs.client.ClientBuilder;
+import javax.ws.rs.core.GenericType;
+import javax.ws.rs.core.MediaType;
+
+/**
+ * In-memory view of the orders waiting to be shipped.
+ *
+ * The view is filled by OrderQueueListener, which consumes the order
+ * messages sent by the Store, and is indexed by order id and by status so
+ * that a page of pending orders is read without touching the queue. The
+ * Store database stays the record of which orders are ready to ship: the
+ * view is loaded from its order service the first time it is used, so
+ * nothing is lost when the application restarts. Only orders that are
+ * ready to ship are kept.
+ *
+ * @author markito
+ */
+@Singleton
+@ConcurrencyManagement(ConcurrencyManagementType.BEAN)
+public class PendingOrderView {
+
+    private static final Logger logger = Logger.getLogger(PendingOrderView.class.getCanonicalName());
+    private static final String SERVICE_ENDPOINT =
+            "http://localhost:8080/dukes-store/services/orders";
+    /* Status of the orders sent to the queue */
+    public static final int READY_TO_SHIP = 3;
+
+    private final ReadWriteLock lock = new ReentrantReadWriteLock();
+    private final Map<Integer, OrderSummary> orders = new HashMap<>();
+    private final Map<Integer, NavigableSet<Integer>> byStatus = new HashMap<>();
+    private final Object loadLock = new Object();
+    private volatile boolean loaded;
+    /* ids updated or removed while the view is being loaded, guarded by
+     * the write lock */
+    private Set<Integer> changedDuringLoad;
+
+    /**
+     * Adds an order that is ready to ship, or replaces it. An order with
+     * any other status leaves the view.
+     * @param order the order as sent by the Store
+     */
+    public void update(OrderSummary order) {
+        lock.writeLock().lock();
+        try {
+            changed(order.getOrderID());
+            delete(order.getOrderID());
+            if (order.getStatusID() == READY_TO_SHIP) {
+                put(order);
+            }
+        } finally {
+            lock.writeLock().unlock();
+        }
+    }
+
+    /**
+     * Takes an order out of the view, when it is shipped or cancelled.
+     * @param orderId the order
+     * @return the order, or null if it was not in the view
+     */
+    public OrderSummary remove(int orderId) {
+        lock.writeLock().lock();
+        try {
+            changed(orderId);
+            return delete(orderId);
+        } finally {
+            lock.writeLock().unlock();
+        }
+    }
+
+    /* The following are called with the write lock held */
+
+    private void put(OrderSummary order) {
+        orders.put(order.getOrderID(), order);
+        NavigableSet<Integer> ids = byStatus.get(order.getStatusID());
+        if (ids == null) {
+            ids = new TreeSet<>();
+            byStatus.put(order.getStatusID(), ids);
+        }
+        ids.add(order.getOrderID());
+    }
+
+    private OrderSummary delete(int orderId) {
+        OrderSummary order = orders.remove(orderId);
+        if (order != null) {
+            NavigableSet<Integer> ids = byStatus.get(order.getStatusID());
+            if (ids != null) {
+                ids.remove(orderId);
+            }
+        }
+        return order;
+    }
+
+    private void changed(int orderId) {
+        if (changedDuringLoad != null) {
+            changedDuringLoad.add(orderId);
+        }
+    }
+
+    /**
+     * @param status the status
+     * @param first index of the first order, in order id order
+     * @param max the page size
+     * @return a page of the orders with this status
+     */
+    public List<OrderSummary> getOrders(int status, int first, int max) {
+        ensureLoaded();
+        lock.readLock().lock();
+        try {
+            List<OrderSummary> page = new ArrayList<>(max);
+            NavigableSet<Integer> ids = byStatus.get(status);
+            if (ids == null) {
+                return page;
+            }
+            Iterator<Integer> it = ids.iterator();
+            for (int i = 0; i < first && it.hasNext(); i++) {
+                it.next();
+            }
+            while (page.size() < max && it.hasNext()) {
+                page.add(orders.get(it.next()));
+            }
+            return page;
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    public int count(int status) {
+        ensureLoaded();
+        lock.readLock().lock();
+        try {
+            NavigableSet<Integer> ids = byStatus.get(status);
+            return ids == null ? 0 : ids.size();
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    /* Loads the orders that are ready to ship from the Store, until it
+     * succeeds once. Only one caller loads at a time; orders received or
+     * removed while the Store is queried are newer than its answer and are
+     * left as they are. */
+    private void ensureLoaded() {
+        if (loaded) {
+            return;
+        }
+        synchronized (loadLock) {
+            if (loaded) {
+                return;
+            }
+            lock.writeLock().lock();
+            try {
+                changedDuringLoad = new HashSet<>();
+            } finally {
+                lock.writeLock().unlock();
+            }
+            Client client = ClientBuilder.newClient();
+            try {
+                List<CustomerOrder> ready = client.target(SERVICE_ENDPOINT)
+                        .queryParam("status", String.valueOf(READY_TO_SHIP))
+                        .request(MediaType.APPLICATION_JSON)
+                        .get(new GenericType<List<CustomerOrder>>() {
+                });
+                lock.writeLock().lock();
+                try {
+                    for (CustomerOrder order : ready) {
+                        if (!changedDuringLoad.contains(order.getId())) {
+                            put(toSummary(order));
+                        }
+                    }
+                    loaded = true;
+                } finally {
+                    lock.writeLock().unlock();
+                }
+                logger.log(Level.INFO, "{0} pending orders loaded", ready.size());
+            } catch (RuntimeException e) {
+                logger.log(Level.WARNING, "Cannot load pending orders: {0}", e.toString());
+            } finally {
+                lock.writeLock().lock();
+                try {
+                    changedDuringLoad = null;
+                } finally {
+                    lock.writeLock().unlock();
+                }
+                client.close();
+            }
+        }
+    }
+
+    private static OrderSummary toSummary(CustomerOrder order) {
+        OrderSummary summary = new OrderSummary();
+        summary.setOrderID(order.getId());
+        summary.setStatusID(order.getOrderStatus().getId());
+        summary.setAmount(order.getAmount());
+        summary.setDateCreated(order.getDateCreated());
+        if (order.getCustomer() != null) {
+            summary.setCustomerID(order.getCustomer().getId());
+            summary.setFirstname(order.getCustomer().getFirstname());
+            summary.setLastname(order.getCustomer().getLastname());
+        }
+        return summary;
+    }
+}
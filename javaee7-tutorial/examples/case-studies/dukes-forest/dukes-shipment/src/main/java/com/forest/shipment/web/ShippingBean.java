@@ -8,9 +8,13 @@
 package com.forest.shipment.web;
 
 import com.forest.entity.CustomerOrder;
+import com.forest.events.OrderStatusUpdate;
+import com.forest.events.OrderSummary;
 import com.forest.shipment.ejb.OrderBrowser;
 import java.io.Serializable;
 import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
 import java.util.logging.Level;
@@ -20,6 +24,7 @@ import javax.annotation.PreDestroy;
 import javax.ejb.EJB;
 import javax.enterprise.context.RequestScoped;
 import javax.inject.Named;
+import javax.ws.rs.ProcessingException;
 import javax.ws.rs.client.Client;
 import javax.ws.rs.client.ClientBuilder;
 import javax.ws.rs.client.Entity;
@@ -37,6 +42,7 @@ public class ShippingBean implements Serializable {
             "http://localhost:8080/dukes-store/services/orders";
     private static final String MEDIA_TYPE = MediaType.APPLICATION_JSON;
     private static final long serialVersionUID = -2526289536313985021L;
+    private static final int PAGE_SIZE = 50;
     protected Client client;
     @EJB
     OrderBrowser orderBrowser;
@@ -50,19 +56,23 @@ public class ShippingBean implements Serializable {
     private void clean() {
         client.close();
     }
-    private Map<String, CustomerOrder> orders;
+    private Map<String, OrderSummary> orders;
+    /* Pending orders ticked on the page, by order id */
+    private final Map<String, Boolean> selected = new HashMap<>();
+    /* Current page of pending orders, kept in a hidden field */
+    private int page;
 
     /**
      * @return the orders
      */
-    public Map<String, CustomerOrder> getOrders() {
+    public Map<String, OrderSummary> getOrders() {
         return orders;
     }
 
     /**
      * @param orders the orders to set
      */
-    public void setOrders(Map<String, CustomerOrder> orders) {
+    public void setOrders(Map<String, OrderSummary> orders) {
         this.orders = orders;
     }
 
@@ -98,24 +108,91 @@ public class ShippingBean implements Serializable {
         return entity;
     }
 
-    public void updateOrderStatus(final String messageID, final Status status) {
-        // consume message
-        CustomerOrder order = orderBrowser.processOrder(messageID);
+    public void updateOrderStatus(final String orderID, final Status status) {
+        updateOrdersStatus(Collections.singletonList(orderID), status);
+    }
 
-        // call order service to update db in Store
-        Response response = client.target(SERVICE_ENDPOINT)
-                .path("/" + order.getId())
-                .request(MEDIA_TYPE)
-                .put(Entity.text(String.valueOf(status.getStatus())));
+    public Map<String, Boolean> getSelected() {
+        return selected;
+    }
 
-        logger.log(Level.FINEST, "PUT Status response: {0}", response.getStatus());
+    public void updateSelectedOrders(final Status status) {
+        List<String> orderIDs = new ArrayList<>();
+        for (Map.Entry<String, Boolean> entry : selected.entrySet()) {
+            if (Boolean.TRUE.equals(entry.getValue())) {
+                orderIDs.add(entry.getKey());
+            }
+        }
+        updateOrdersStatus(orderIDs, status);
+        selected.clear();
     }
 
     /**
-     * @return the orders
+     * Takes the orders out of the pending list and updates all of them in
+     * the Store with a single call. If the call fails the orders are put
+     * back in the pending list.
+     * @param orderIDs the orders
+     * @param status the new status
+     */
+    public void updateOrdersStatus(final List<String> orderIDs, final Status status) {
+        OrderStatusUpdate update = new OrderStatusUpdate();
+        update.setFromStatus(Status.READY_TO_SHIP.getStatus());
+        update.setToStatus(status.getStatus());
+
+        // take the orders out of the pending list
+        List<OrderSummary> taken = new ArrayList<>();
+        for (String orderID : orderIDs) {
+            OrderSummary order = orderBrowser.processOrder(orderID);
+            if (order != null) {
+                taken.add(order);
+                update.getOrderIds().add(order.getOrderID());
+            }
+        }
+        orders = null;
+        if (update.getOrderIds().isEmpty()) {
+            return;
+        }
+
+        // call order service to update db in Store
+        Response response = null;
+        boolean updated = false;
+        try {
+            response = client.target(SERVICE_ENDPOINT)
+                    .path("/status")
+                    .request(MediaType.TEXT_PLAIN)
+                    .put(Entity.entity(update, MEDIA_TYPE));
+            updated = response.getStatusInfo().getFamily() == Response.Status.Family.SUCCESSFUL;
+            logger.log(Level.INFO, "PUT Status response: {0}, {1} of {2} orders updated",
+                    new Object[]{response.getStatus(), response.readEntity(String.class),
+                        update.getOrderIds().size()});
+        } catch (ProcessingException e) {
+            logger.log(Level.WARNING, "Cannot update order status: {0}", e.toString());
+        } finally {
+            if (response != null) {
+                response.close();
+            }
+            if (!updated) {
+                for (OrderSummary order : taken) {
+                    orderBrowser.restoreOrder(order);
+                }
+            }
+        }
+    }
+
+    /**
+     * @return the ids of the pending orders on the current page
      */
     public List<String> getPendingOrders() {
-        Map<String, CustomerOrder> pendingOrders = orderBrowser.getOrders();
+        if (orders != null) {
+            return new ArrayList<>(orders.keySet());
+        }
+        Map<String, OrderSummary> pendingOrders =
+                orderBrowser.getOrders(page * PAGE_SIZE, PAGE_SIZE);
+        if (pendingOrders == null && page > 0) {
+            // the page was emptied, show the last one
+            page = Math.max(0, (getPendingCount() - 1) / PAGE_SIZE);
+            pendingOrders = orderBrowser.getOrders(page * PAGE_SIZE, PAGE_SIZE);
+        }
 
         if (pendingOrders == null) {
             return null;
@@ -126,6 +203,44 @@ public class ShippingBean implements Serializable {
         }
     }
 
+    public int getPendingCount() {
+        return orderBrowser.countOrders();
+    }
+
+    public int getPage() {
+        return page;
+    }
+
+    public void setPage(int page) {
+        this.page = Math.max(0, page);
+    }
+
+    public int getPageSize() {
+        return PAGE_SIZE;
+    }
+
+    public boolean isHasNextPage() {
+        return (page + 1) * PAGE_SIZE < getPendingCount();
+    }
+
+    public boolean isHasPreviousPage() {
+        return page > 0;
+    }
+
+    public void next() {
+        if (isHasNextPage()) {
+            page++;
+        }
+        orders = null;
+    }
+
+    public void previous() {
+        if (isHasPreviousPage()) {
+            page--;
+        }
+        orders = null;
+    }
+
     public List<CustomerOrder> getCompletedOrders() {
         return listByStatus(Status.SHIPPED);
     }
@@ -7,16 +7,26 @@
  */
 package com.forest.ejb;
 
+import java.util.ArrayList;
 import java.util.List;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
 import javax.persistence.EntityManager;
 import javax.persistence.criteria.CriteriaBuilder;
 import javax.persistence.criteria.CriteriaQuery;
+import javax.persistence.criteria.Path;
+import javax.persistence.criteria.Predicate;
+import javax.persistence.criteria.Root;
 
 /**
  *
  * @author markito
  */
+@QueryMonitored
 public abstract class AbstractFacade<T>  {
+    /* Counts shared by every facade instance, by entity class */
+    private static final ConcurrentMap<Class<?>, CachedCount> counts =
+            new ConcurrentHashMap<>();
     private Class<T> entityClass;
     
     public AbstractFacade() {
@@ -31,14 +41,28 @@ public abstract class AbstractFacade<T>  {
 
     public void create(T entity) {
         getEntityManager().persist(entity);
+        counts.remove(entityClass);
+        changed(entity);
     }
 
     public void edit(T entity) {
         getEntityManager().merge(entity);
+        changed(entity);
     }
 
     public void remove(T entity) {
         getEntityManager().remove(getEntityManager().merge(entity));
+        counts.remove(entityClass);
+        changed(entity);
+    }
+
+    /**
+     * Called after create, edit and remove, for subclasses that keep cached
+     * copies of their entities.
+     *
+     * @param entity the entity that was written
+     */
+    protected void changed(T entity) {
     }
 
     public T find(Object id) {
@@ -80,4 +104,90 @@ public abstract class AbstractFacade<T>  {
         return ((Long) q.getSingleResult()).intValue();
     }
 
+    /**
+     * Returns the number of entities, reusing a count computed less than
+     * maxAgeMillis ago. The cached value is dropped when this facade creates
+     * or removes an entity, so it is only approximate when other
+     * applications write to the table.
+     *
+     * @param maxAgeMillis how old a cached count may be
+     * @return the (possibly cached) number of entities
+     */
+    public int countCached(long maxAgeMillis) {
+        CachedCount cached = counts.get(entityClass);
+        long now = System.currentTimeMillis();
+        if (cached == null || now - cached.time > maxAgeMillis) {
+            cached = new CachedCount(count(), now);
+            counts.put(entityClass, cached);
+        }
+        return cached.value;
+    }
+
+    /**
+     * Name of the attribute keyset pagination orders and seeks on. It must be
+     * unique and indexed; the default is the "id" primary key.
+     *
+     * @return the key attribute name
+     */
+    protected String getKeyAttribute() {
+        return "id";
+    }
+
+    /**
+     * Returns at most maxResults entities whose key is greater than lastKey,
+     * ordered by key. Unlike findRange, the database seeks straight to
+     * lastKey through the key index instead of reading and discarding every
+     * row before the page, so a deep page costs the same as the first one.
+     *
+     * @param lastKey key of the last entity of the previous page, or null
+     * for the first page
+     * @param maxResults the page size
+     * @return the entities of the page
+     */
+    public List<T> findRangeAfter(Object lastKey, int maxResults) {
+        CriteriaQuery<T> cq = getCriteriaBuilder().createQuery(entityClass);
+        return findRangeAfter(lastKey, maxResults, cq, cq.from(entityClass),
+                null);
+    }
+
+    /**
+     * Keyset variant of findRange(int[], CriteriaQuery), for subclasses.
+     *
+     * @param lastKey key of the last entity of the previous page, or null
+     * @param maxResults the page size
+     * @param cq the query, not yet restricted or ordered
+     * @param rt the root of the query
+     * @param filter an additional restriction, or null
+     * @return the entities of the page
+     */
+    @SuppressWarnings("unchecked")
+    protected List<T> findRangeAfter(Object lastKey, int maxResults,
+            CriteriaQuery<T> cq, Root<T> rt, Predicate filter) {
+        CriteriaBuilder cb = getCriteriaBuilder();
+        Path<Comparable<Object>> key = rt.get(getKeyAttribute());
+        List<Predicate> where = new ArrayList<>();
+        if (filter != null) {
+            where.add(filter);
+        }
+        if (lastKey != null) {
+            where.add(cb.greaterThan(key, (Comparable<Object>) lastKey));
+        }
+        cq.select(rt)
+                .where(where.toArray(new Predicate[where.size()]))
+                .orderBy(cb.asc(key));
+        return getEntityManager().createQuery(cq)
+                .setMaxResults(maxResults)
+                .getResultList();
+    }
+
+    private static class CachedCount {
+        private final int value;
+        private final long time;
+
+        CachedCount(int value, long time) {
+            this.value = value;
+            this.time = time;
+        }
+    }
+
 }
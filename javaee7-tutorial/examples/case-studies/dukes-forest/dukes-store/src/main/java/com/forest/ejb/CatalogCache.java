@@ -0,0 +1,380 @@
+/**
+ * Copyright (c) 2014 Oracle and/or its affiliates. All rights reserved.
+ *
+ * You may not modify, use, reproduce, or distribute this software except in
+ * compliance with  the terms of the License at:
+ * http://java.net/projects/javaeetutorial/pages/BerkeleyLicense
+ */
+package com.forest.ejb;
+
+import com.forest.entity.Category;
+import com.forest.entity.Product;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+import javax.annotation.Resource;
+import javax.ejb.ConcurrencyManagement;
+import javax.ejb.ConcurrencyManagementType;
+import javax.ejb.Schedule;
+import javax.ejb.Singleton;
+import javax.transaction.Synchronization;
+import javax.transaction.TransactionSynchronizationRegistry;
+
+/**
+ * Application wide cache of the catalog (products and categories) read by
+ * the store front. Each region is a bounded LRU map whose entries expire
+ * after {@link #TTL} milliseconds. Product images are kept in direct buffers,
+ * at most {@link #IMAGE_BYTES} bytes of them, least recently used first out.
+ * ProductBean and CategoryBean invalidate the affected regions when they
+ * create, edit or remove an entity; inside a transaction the regions are
+ * only invalidated once it completes, so that a concurrent reader cannot
+ * cache the row as it was before the commit. Every region also counts its
+ * invalidations: a reader takes the generation before it loads from the
+ * database and passes it to the put, which is dropped if the region was
+ * invalidated meanwhile, so a row read before the commit is not cached
+ * after it either.
+ *
+ * Cached entities are detached and shared between requests, so callers
+ * must not modify them.
+ *
+ * @author markito
+ */
+@Singleton
+@ConcurrencyManagement(ConcurrencyManagementType.BEAN)
+public class CatalogCache {
+
+    private static final Logger logger =
+            Logger.getLogger(CatalogCache.class.getCanonicalName());
+
+    public static final long TTL = TimeUnit.MINUTES.toMillis(10);
+    public static final long IMAGE_BYTES = 32L * 1024 * 1024;
+
+    private final Region<Object, Product> products = new Region<>("products", 500);
+    private final Region<String, List<Product>> productPages = new Region<>("productPages", 200);
+    private final Region<String, List<Category>> categories = new Region<>("categories", 1);
+    private final ImageRegion images = new ImageRegion();
+    @Resource
+    private TransactionSynchronizationRegistry registry;
+
+    public Product getProduct(Object id) {
+        return products.get(id);
+    }
+
+    public long getProductGeneration() {
+        return products.generation();
+    }
+
+    /**
+     * @param product the product read from the database
+     * @param generation the product generation taken before reading it
+     */
+    public void putProduct(Product product, long generation) {
+        products.put(product.getId(), product, generation);
+    }
+
+    /**
+     * @param id the product id
+     * @param variant a ProductImageStore variant, or null for the original
+     * @return the cached image, or null
+     */
+    public ProductImage getImage(Object id, String variant) {
+        return images.get(imageKey(id, variant));
+    }
+
+    public long getImageGeneration() {
+        return images.generation();
+    }
+
+    /**
+     * @param generation the image generation taken before reading the image
+     * @return the image, cached unless the images were invalidated since
+     * the generation was taken
+     */
+    public ProductImage putImage(Object id, String variant, String fileName, byte[] bytes,
+            long generation) {
+        ProductImage image = new ProductImage(fileName, bytes);
+        images.put(imageKey(id, variant), image, generation);
+        return image;
+    }
+
+    public List<Product> getProductPage(String key) {
+        return productPages.get(key);
+    }
+
+    public long getProductPageGeneration() {
+        return productPages.generation();
+    }
+
+    public List<Product> putProductPage(String key, List<Product> page, long generation) {
+        List<Product> copy = Collections.unmodifiableList(new ArrayList<>(page));
+        productPages.put(key, copy, generation);
+        return copy;
+    }
+
+    public List<Category> getCategories() {
+        return categories.get("all");
+    }
+
+    public long getCategoryGeneration() {
+        return categories.generation();
+    }
+
+    public List<Category> putCategories(List<Category> list, long generation) {
+        List<Category> copy = Collections.unmodifiableList(new ArrayList<>(list));
+        categories.put("all", copy, generation);
+        return copy;
+    }
+
+    /**
+     * A product was created, changed or removed.
+     * @param id the product id, null if not known
+     */
+    public void invalidateProduct(Object id) {
+        Invalidation pending = pending();
+        if (pending == null) {
+            evictProduct(id);
+        } else if (id != null) {
+            pending.products.add(id);
+        }
+    }
+
+    /**
+     * A category was created, changed or removed. Products reference their
+     * category, so they are dropped too.
+     */
+    public void invalidateCategories() {
+        Invalidation pending = pending();
+        if (pending == null) {
+            evictCategories();
+        } else {
+            pending.categories = true;
+        }
+    }
+
+    private void evictProduct(Object id) {
+        if (id != null) {
+            products.remove(id);
+            images.remove(imageKey(id, null));
+            for (String variant : ProductImageStore.VARIANTS.keySet()) {
+                images.remove(imageKey(id, variant));
+            }
+        }
+        productPages.clear();
+    }
+
+    private void evictCategories() {
+        categories.clear();
+        products.clear();
+        productPages.clear();
+    }
+
+    /* The invalidations of the current transaction, applied when it
+     * completes, or null outside a transaction */
+    private Invalidation pending() {
+        if (registry.getTransactionKey() == null) {
+            return null;
+        }
+        Invalidation pending = (Invalidation) registry.getResource(CatalogCache.class);
+        if (pending == null) {
+            final Invalidation invalidation = new Invalidation();
+            registry.putResource(CatalogCache.class, invalidation);
+            registry.registerInterposedSynchronization(new Synchronization() {
+                @Override
+                public void beforeCompletion() {
+                }
+
+                @Override
+                public void afterCompletion(int status) {
+                    if (invalidation.categories) {
+                        evictCategories();
+                    }
+                    for (Object id : invalidation.products) {
+                        evictProduct(id);
+                    }
+                    productPages.clear();
+                }
+            });
+            pending = invalidation;
+        }
+        return pending;
+    }
+
+    /**
+     * @return hits, misses and size of every region, by region name
+     */
+    public Map<String, String> getStatistics() {
+        Map<String, String> stats = new LinkedHashMap<>();
+        for (Region<?, ?> region : new Region<?, ?>[]{products, productPages, categories}) {
+            stats.put(region.name, region.toString());
+        }
+        stats.put("images", images.toString());
+        return stats;
+    }
+
+    private static Object imageKey(Object id, String variant) {
+        return variant == null ? id : id + "-" + variant;
+    }
+
+    @Schedule(minute = "0", hour = "*", persistent = false)
+    public void logStatistics() {
+        logger.log(Level.INFO, "Catalog cache: {0}", getStatistics());
+    }
+
+    /* Bounded LRU map with expiring entries and hit/miss counters */
+    private static class Region<K, V> {
+
+        private final String name;
+        private final LinkedHashMap<K, Entry<V>> map;
+        private final AtomicLong hits = new AtomicLong();
+        private final AtomicLong misses = new AtomicLong();
+        private long generation;
+
+        Region(String name, final int maxSize) {
+            this.name = name;
+            this.map = new LinkedHashMap<K, Entry<V>>(16, 0.75f, true) {
+                private static final long serialVersionUID = 1L;
+
+                @Override
+                protected boolean removeEldestEntry(Map.Entry<K, Entry<V>> eldest) {
+                    return size() > maxSize;
+                }
+            };
+        }
+
+        synchronized V get(K key) {
+            Entry<V> entry = map.get(key);
+            if (entry != null && entry.expires < System.currentTimeMillis()) {
+                map.remove(key);
+                entry = null;
+            }
+            if (entry == null) {
+                misses.incrementAndGet();
+                return null;
+            }
+            hits.incrementAndGet();
+            return entry.value;
+        }
+
+        synchronized long generation() {
+            return generation;
+        }
+
+        /* Dropped if the region was invalidated since the generation */
+        synchronized void put(K key, V value, long generation) {
+            if (generation == this.generation) {
+                map.put(key, new Entry<>(value, System.currentTimeMillis() + TTL));
+            }
+        }
+
+        synchronized void remove(K key) {
+            generation++;
+            map.remove(key);
+        }
+
+        synchronized void clear() {
+            generation++;
+            map.clear();
+        }
+
+        @Override
+        public synchronized String toString() {
+            return "hits=" + hits.get() + ", misses=" + misses.get()
+                    + ", size=" + map.size();
+        }
+    }
+
+    /* LRU map of images bounded by their total size; images do not expire
+     * since they are replaced only through ProductBean */
+    private static class ImageRegion {
+
+        private final LinkedHashMap<Object, ProductImage> map =
+                new LinkedHashMap<>(16, 0.75f, true);
+        private final AtomicLong hits = new AtomicLong();
+        private final AtomicLong misses = new AtomicLong();
+        private long bytes;
+        private long generation;
+
+        synchronized ProductImage get(Object id) {
+            ProductImage image = map.get(id);
+            if (image == null) {
+                misses.incrementAndGet();
+            } else {
+                hits.incrementAndGet();
+            }
+            return image;
+        }
+
+        synchronized long generation() {
+            return generation;
+        }
+
+        /* Dropped if an image was invalidated since the generation */
+        synchronized void put(Object id, ProductImage image, long generation) {
+            if (generation != this.generation) {
+                return;
+            }
+            if (image.getLength() > IMAGE_BYTES / 4) {
+                return; // too big to be worth caching
+            }
+            drop(id);
+            map.put(id, image);
+            bytes += image.getLength();
+            Iterator<ProductImage> eldest = map.values().iterator();
+            while (bytes > IMAGE_BYTES && eldest.hasNext()) {
+                bytes -= eldest.next().getLength();
+                eldest.remove();
+            }
+        }
+
+        synchronized void remove(Object id) {
+            generation++;
+            drop(id);
+        }
+
+        synchronized void clear() {
+            generation++;
+            map.clear();
+            bytes = 0;
+        }
+
+        private void drop(Object id) {
+            ProductImage old = map.remove(id);
+            if (old != null) {
+                bytes -= old.getLength();
+            }
+        }
+
+        @Override
+        public synchronized String toString() {
+            return "hits=" + hits.get() + ", misses=" + misses.get()
+                    + ", size=" + map.size() + ", bytes=" + bytes;
+        }
+    }
+
+    /* Regions to invalidate once a transaction completes */
+    private static class Invalidation {
+
+        private final Set<Object> products = new HashSet<>();
+        private boolean categories;
+    }
+
+    private static class Entry<V> {
+
+        private final V value;
+        private final long expires;
+
+        Entry(V value, long expires) {
+            this.value = value;
+            this.expires = expires;
+        }
+    }
+}
@@ -13,6 +13,8 @@
 package com.forest.ejb;
 
 import com.forest.entity.Category;
+import java.util.List;
+import javax.ejb.EJB;
 import javax.ejb.Stateless;
 import javax.persistence.EntityManager;
 import javax.persistence.PersistenceContext;
@@ -26,6 +28,9 @@ public class CategoryBean extends AbstractFacade<Category> {
     @PersistenceContext(unitName="forestPU")
     private EntityManager em;
 
+    @EJB
+    private CatalogCache cache;
+
     @Override
     protected EntityManager getEntityManager() {
         return em;
@@ -35,4 +40,23 @@ public class CategoryBean extends AbstractFacade<Category> {
         super(Category.class);
     }
 
+    /**
+     * Served from the catalog cache; the returned list and categories are
+     * shared and must not be modified.
+     */
+    @Override
+    public List<Category> findAll() {
+        List<Category> all = cache.getCategories();
+        if (all == null) {
+            long generation = cache.getCategoryGeneration();
+            all = cache.putCategories(super.findAll(), generation);
+        }
+        return all;
+    }
+
+    @Override
+    protected void changed(Category category) {
+        cache.invalidateCategories();
+    }
+
 }
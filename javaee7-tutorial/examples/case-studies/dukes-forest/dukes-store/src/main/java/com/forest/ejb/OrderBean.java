@@ -8,8 +8,12 @@
 package com.forest.ejb;
 
 import com.forest.entity.CustomerOrder;
+import com.forest.entity.OrderDetail;
 import com.forest.entity.OrderStatus;
+import com.forest.entity.Product;
+import com.forest.events.OrderStatusUpdate;
 import java.io.Serializable;
+import java.util.ArrayList;
 import java.util.List;
 import java.util.logging.Level;
 import java.util.logging.Logger;
@@ -33,6 +37,8 @@ public class OrderBean extends AbstractFacade<CustomerOrder> implements Serializ
     private static final Logger logger = 
             Logger.getLogger(ShoppingCart.class.getCanonicalName());
     private static final long serialVersionUID = -2407971550575800416L;
+    /* Most ids in one IN list of a bulk update */
+    private static final int BULK_CHUNK = 500;
     @PersistenceContext(unitName = "forestPU")
     private EntityManager em;
     CustomerOrder order;
@@ -53,6 +59,51 @@ public class OrderBean extends AbstractFacade<CustomerOrder> implements Serializ
         return em;
     }
 
+    /**
+     * Inserts an order and one detail per product in a single transaction.
+     * The order is flushed first so that its generated id can be used in
+     * the detail keys; the details are then written together at commit.
+     *
+     * @param order the new order
+     * @param products the ordered products, one of each
+     * @return the persisted order
+     */
+    public CustomerOrder placeOrder(CustomerOrder order, List<Product> products) {
+        em.persist(order);
+        em.flush();
+
+        List<OrderDetail> details = new ArrayList<>(products.size());
+        for (Product p : products) {
+            OrderDetail detail = new OrderDetail(order.getId(), p.getId());
+            //TODO: next version will handle qty on shoppingCart 
+            detail.setQty(1);
+            detail.setProduct(em.getReference(Product.class, p.getId()));
+            detail.setCustomerOrder(order);
+            em.persist(detail);
+            details.add(detail);
+        }
+        order.setOrderDetailList(details);
+
+        return order;
+    }
+
+    /**
+     * Changes the status of an order and returns it, so callers that need
+     * the order do not have to read it again.
+     *
+     * @param orderId the order
+     * @param status the new status
+     * @return the updated order, or null if there is no such order
+     */
+    public CustomerOrder changeStatus(int orderId, Status status) {
+        CustomerOrder updated = em.find(CustomerOrder.class, orderId);
+        if (updated != null) {
+            updated.setOrderStatus(em.find(OrderStatus.class, status.getStatus()));
+            logger.log(Level.INFO, "Order id:{0} - Status:{1}", new Object[]{orderId, status});
+        }
+        return updated;
+    }
+
     public List<CustomerOrder> getOrderByCustomerId(Integer id) {
         Query createNamedQuery = getEntityManager().createNamedQuery("CustomerOrder.findByCustomerId");
 
@@ -109,6 +160,52 @@ public class OrderBean extends AbstractFacade<CustomerOrder> implements Serializ
 
     }
     
+    /**
+     * Moves many orders to a new status with one call, for example when a
+     * warehouse shift ships its orders.
+     *
+     * @param update the order ids and the expected and new status
+     * @return the number of orders updated, as text
+     */
+    @PUT
+    @Path("status")
+    @Consumes({"application/xml", "application/json"})
+    @Produces("text/plain")
+    public String setOrdersStatus(OrderStatusUpdate update) {
+        int updated = changeStatus(update.getOrderIds(), update.getFromStatus(), update.getToStatus());
+        logger.log(Level.INFO, "{0}: {1} orders updated", new Object[]{update, updated});
+        return String.valueOf(updated);
+    }
+
+    /**
+     * Changes the status of many orders with bulk UPDATE statements. An
+     * order is only changed if it still has the fromStatus, so an order
+     * that was changed meanwhile (cancelled, or shipped twice) is skipped.
+     *
+     * @param orderIds the orders
+     * @param fromStatus the status the orders are expected to have
+     * @param toStatus the new status
+     * @return the number of orders updated
+     */
+    public int changeStatus(List<Integer> orderIds, int fromStatus, int toStatus) {
+        OrderStatus from = em.find(OrderStatus.class, fromStatus);
+        OrderStatus to = em.find(OrderStatus.class, toStatus);
+        if (from == null || to == null || orderIds.isEmpty()) {
+            return 0;
+        }
+
+        int updated = 0;
+        for (int i = 0; i < orderIds.size(); i += BULK_CHUNK) {
+            updated += em.createQuery("UPDATE CustomerOrder c SET c.orderStatus = :to "
+                    + "WHERE c.id IN :ids AND c.orderStatus = :from")
+                    .setParameter("to", to)
+                    .setParameter("from", from)
+                    .setParameter("ids", orderIds.subList(i, Math.min(i + BULK_CHUNK, orderIds.size())))
+                    .executeUpdate();
+        }
+        return updated;
+    }
+
      /**
      * ***************************************************************************
      * Status orders mapped to ENUM
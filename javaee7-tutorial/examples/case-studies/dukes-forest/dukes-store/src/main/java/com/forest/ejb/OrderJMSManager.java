@@ -8,18 +8,17 @@
 package com.forest.ejb;
 
 import com.forest.entity.CustomerOrder;
+import com.forest.events.OrderSummary;
+import com.forest.events.OrderSummaryCodec;
+import java.io.IOException;
 import java.util.logging.Level;
 import java.util.logging.Logger;
 import javax.annotation.Resource;
 import javax.ejb.Stateless;
 import javax.inject.Inject;
-import javax.jms.JMSConsumer;
 import javax.jms.JMSContext;
 import javax.jms.JMSDestinationDefinition;
-import javax.jms.JMSException;
-import javax.jms.ObjectMessage;
 import javax.jms.Queue;
-import javax.jms.QueueBrowser;
 
 @JMSDestinationDefinition(
         name = "java:global/jms/OrderQueue",
@@ -34,33 +33,30 @@ public class OrderJMSManager {
     
     @Resource(mappedName = "java:global/jms/OrderQueue")
     private Queue queue;
-    private QueueBrowser browser;
 
+    /**
+     * Sends the summary of an order to Shipment as a BytesMessage encoded
+     * by OrderSummaryCodec.
+     * @param customerOrder the order
+     */
     public void sendMessage(CustomerOrder customerOrder) {
-        ObjectMessage msgObj = context.createObjectMessage();
+        OrderSummary summary = new OrderSummary();
+        summary.setOrderID(customerOrder.getId());
+        summary.setStatusID(customerOrder.getOrderStatus().getId());
+        summary.setAmount(customerOrder.getAmount());
+        summary.setDateCreated(customerOrder.getDateCreated());
+        if (customerOrder.getCustomer() != null) {
+            summary.setCustomerID(customerOrder.getCustomer().getId());
+            summary.setFirstname(customerOrder.getCustomer().getFirstname());
+            summary.setLastname(customerOrder.getCustomer().getLastname());
+        }
 
         try {
-            msgObj.setObject(customerOrder);
-            msgObj.setStringProperty("OrderID", String.valueOf(customerOrder.getId()));
-
-            context.createProducer().send(queue, msgObj);
-        } catch (JMSException ex) {
+            context.createProducer()
+                    .setProperty("OrderID", customerOrder.getId())
+                    .send(queue, OrderSummaryCodec.encode(summary));
+        } catch (IOException ex) {
             logger.log(Level.SEVERE, null, ex);
         }
     }
-
-    public void deleteMessage(int orderID) throws Exception {
-        
-        JMSConsumer consumer = context.createConsumer(queue, "OrderID='" + orderID + "'") ;
-        
-        CustomerOrder order = consumer.receiveBody(CustomerOrder.class, 1);
-        
-        if (order != null)
-            logger.log(Level.INFO, "Order {0} removed from queue.", order.getId());
-        else {
-            logger.log(Level.SEVERE, "Order {0} was not removed from queue!", orderID); 
-            throw new Exception("Order not removed from queue");
-        }
-        
-    }
 }
@@ -9,9 +9,13 @@ package com.forest.ejb;
 
 import com.forest.entity.Category;
 import com.forest.entity.Product;
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
 import java.util.List;
 import java.util.logging.Level;
 import java.util.logging.Logger;
+import javax.ejb.EJB;
 import javax.ejb.Stateless;
 import javax.persistence.EntityManager;
 import javax.persistence.PersistenceContext;
@@ -32,6 +36,12 @@ public class ProductBean extends AbstractFacade<Product> {
     @PersistenceContext(unitName="forestPU")
     private EntityManager em;
 
+    @EJB
+    private CatalogCache cache;
+
+    @EJB
+    private ProductImageStore imageStore;
+
     @Override
     protected EntityManager getEntityManager() {
         return em;
@@ -41,6 +51,87 @@ public class ProductBean extends AbstractFacade<Product> {
         super(Product.class);
     }
 
+    /**
+     * Served from the catalog cache; the returned product is shared and
+     * must not be modified.
+     */
+    @Override
+    public Product find(Object id) {
+        Product product = cache.getProduct(id);
+        if (product == null) {
+            long generation = cache.getProductGeneration();
+            product = super.find(id);
+            if (product != null) {
+                cache.putProduct(product, generation);
+            }
+        }
+        return product;
+    }
+
+    /**
+     * Reads the product from the database rather than the catalog cache,
+     * for callers that modify it.
+     * @param id the product id
+     * @return a product of its own, or null
+     */
+    public Product findForEdit(Object id) {
+        return super.find(id);
+    }
+
+    /**
+     * Reads only the image columns of a product, through the catalog cache.
+     * @param id the product id
+     * @return the image, or null if the product has none
+     */
+    public ProductImage findImage(int id) {
+        return findImage(id, null);
+    }
+
+    /**
+     * Finds a product image in the image store, or in the PRODUCT table for
+     * images that were not uploaded through the store. A variant that is
+     * not resized yet is replaced by the original image.
+     * @param id the product id
+     * @param variant a ProductImageStore variant, or null for the original
+     * @return the image, or null if the product has none
+     */
+    public ProductImage findImage(int id, String variant) {
+        if (variant != null && !ProductImageStore.VARIANTS.containsKey(variant)) {
+            variant = null;
+        }
+        ProductImage image = cache.getImage(id, variant);
+        if (image != null) {
+            return image;
+        }
+        long generation = cache.getImageGeneration();
+        try {
+            File file = imageStore.find(id, variant);
+            if (file != null) {
+                return cache.putImage(id, variant, file.getName(), Files.readAllBytes(file.toPath()),
+                        generation);
+            }
+        } catch (IOException e) {
+            logger.log(Level.WARNING, "Cannot read image of product " + id, e);
+        }
+        if (variant != null) {
+            return findImage(id, null);
+        }
+        List<Object[]> rows = em.createQuery(
+                "SELECT p.img, p.imgSrc FROM Product p WHERE p.id = :id", Object[].class)
+                .setParameter("id", id)
+                .getResultList();
+        if (rows.isEmpty() || rows.get(0)[1] == null) {
+            return null;
+        }
+        return cache.putImage(id, null, (String) rows.get(0)[0], (byte[]) rows.get(0)[1],
+                generation);
+    }
+
+    @Override
+    protected void changed(Product product) {
+        cache.invalidateProduct(product.getId());
+    }
+
     /**
      * Example usage of JPA CriteriaBuilder. You can also use NamedQueries
      * @param range
@@ -48,6 +139,13 @@ public class ProductBean extends AbstractFacade<Product> {
      * @return 
      */
     public List<Product> findByCategory(int[] range, int categoryId) {       
+         String key = categoryId + ":" + range[0] + "-" + range[1];
+         List<Product> cached = cache.getProductPage(key);
+         if (cached != null) {
+             return cached;
+         }
+         long generation = cache.getProductPageGeneration();
+
          Category cat = new Category();
          cat.setId(categoryId);
          
@@ -60,7 +158,34 @@ public class ProductBean extends AbstractFacade<Product> {
          
          logger.log(Level.FINEST, "Product List size: {0}", result.size());
          
-        return result;
+        return cache.putProductPage(key, result, generation);
+    }
+
+    /**
+     * Keyset version of findByCategory: the products of the category with
+     * an id greater than lastId, in id order.
+     * @param lastId id of the last product of the previous page, or null
+     * @param maxResults
+     * @param categoryId
+     * @return 
+     */
+    public List<Product> findByCategoryAfter(Integer lastId, int maxResults,
+            int categoryId) {
+        String key = categoryId + ">" + lastId + ":" + maxResults;
+        List<Product> cached = cache.getProductPage(key);
+        if (cached != null) {
+            return cached;
+        }
+        long generation = cache.getProductPageGeneration();
+
+        Category cat = new Category();
+        cat.setId(categoryId);
+
+        CriteriaQuery<Product> query = em.getCriteriaBuilder().createQuery(Product.class);
+        Root<Product> product = query.from(Product.class);
+
+        return cache.putProductPage(key, findRangeAfter(lastId, maxResults, query, product,
+                em.getCriteriaBuilder().equal(product.get("category"), cat)), generation);
     }
     
     
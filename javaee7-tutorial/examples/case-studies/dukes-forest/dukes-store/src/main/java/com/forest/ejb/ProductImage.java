@@ -0,0 +1,76 @@
+/**
+ * Copyright (c) 2014 Oracle and/or its affiliates. All rights reserved.
+ *
+ * You may not modify, use, reproduce, or distribute this software except in
+ * compliance with  the terms of the License at:
+ * http://java.net/projects/javaeetutorial/pages/BerkeleyLicense
+ */
+package com.forest.ejb;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.Channels;
+import java.nio.channels.WritableByteChannel;
+import java.util.zip.CRC32;
+
+/**
+ * Image of a product, kept outside the Java heap in a direct buffer so the
+ * catalog cache can hold many of them without adding to garbage collection.
+ * Instances are immutable and shared between requests.
+ *
+ * @author markito
+ */
+public class ProductImage {
+
+    private final String fileName;
+    private final ByteBuffer data;
+    private final String etag;
+
+    public ProductImage(String fileName, byte[] bytes) {
+        this.fileName = fileName;
+        ByteBuffer buffer = ByteBuffer.allocateDirect(bytes.length);
+        buffer.put(bytes).flip();
+        this.data = buffer.asReadOnlyBuffer();
+
+        CRC32 crc = new CRC32();
+        crc.update(bytes);
+        this.etag = "\"" + Long.toHexString(crc.getValue()) + "-"
+                + Integer.toHexString(bytes.length) + "\"";
+    }
+
+    /**
+     * @return the uploaded file name, may be null
+     */
+    public String getFileName() {
+        return fileName;
+    }
+
+    public int getLength() {
+        return data.capacity();
+    }
+
+    /**
+     * @return a strong entity tag derived from the image content
+     */
+    public String getETag() {
+        return etag;
+    }
+
+    /**
+     * Writes part of the image, a few kilobytes at a time.
+     * @param out where to write
+     * @param offset first byte to write
+     * @param length number of bytes to write
+     * @throws IOException
+     */
+    public void writeTo(OutputStream out, int offset, int length) throws IOException {
+        ByteBuffer slice = data.duplicate();
+        slice.position(offset);
+        slice.limit(offset + length);
+        WritableByteChannel channel = Channels.newChannel(out);
+        while (slice.hasRemaining()) {
+            channel.write(slice);
+        }
+    }
+}
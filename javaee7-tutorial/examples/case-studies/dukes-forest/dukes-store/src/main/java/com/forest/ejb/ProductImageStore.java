@@ -0,0 +1,308 @@
+/**
+ * Copyright (c) 2014 Oracle and/or its affiliates. All rights reserved.
+ *
+ * You may not modify, use, reproduce, or distribute this software except in
+ * compliance with  the terms of the License at:
+ * http://java.net/projects/javaeetutorial/pages/BerkeleyLicense
+ */
+package com.forest.ejb;
+
+import java.awt.Graphics2D;
+import java.awt.RenderingHints;
+import java.awt.image.BufferedImage;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
+import java.util.Collections;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+import javax.annotation.PostConstruct;
+import javax.annotation.Resource;
+import javax.ejb.ConcurrencyManagement;
+import javax.ejb.ConcurrencyManagementType;
+import javax.ejb.EJB;
+import javax.ejb.Singleton;
+import javax.enterprise.concurrent.ManagedExecutorService;
+import javax.imageio.ImageIO;
+import javax.imageio.ImageReader;
+import javax.imageio.stream.ImageInputStream;
+
+/**
+ * Stores product images as files instead of in the PRODUCT table.
+ *
+ * An upload is copied to a temporary file in small chunks, its type is
+ * checked from its first bytes, and it is then renamed to
+ * <code>&lt;id&gt;.&lt;ext&gt;</code>. Resized variants
+ * (<code>&lt;id&gt;-thumb.png</code>, ...) are created afterwards on the
+ * managed executor, at most {@link #MAX_PENDING} at a time; until a variant
+ * exists the original image is served instead. Each upload of a product
+ * starts a new generation, and variants resized from an older upload are
+ * discarded. Images of more than {@link #MAX_PIXELS} pixels are refused,
+ * before they are decoded.
+ *
+ * The directory is given by the forest.images.dir system property.
+ *
+ * @author markito
+ */
+@Singleton
+@ConcurrencyManagement(ConcurrencyManagementType.BEAN)
+public class ProductImageStore {
+
+    private static final Logger logger =
+            Logger.getLogger(ProductImageStore.class.getCanonicalName());
+
+    public static final long MAX_UPLOAD = 10L * 1024 * 1024;
+    public static final int MAX_PENDING = 50;
+    public static final long MAX_PIXELS = 25L * 1000 * 1000;
+    /* Variant name and the size of its longest side, in pixels */
+    public static final Map<String, Integer> VARIANTS;
+
+    static {
+        Map<String, Integer> variants = new LinkedHashMap<>();
+        variants.put("thumb", 100);
+        variants.put("medium", 300);
+        VARIANTS = Collections.unmodifiableMap(variants);
+    }
+
+    private static final int BUFFER_SIZE = 8192;
+
+    @Resource
+    private ManagedExecutorService executor;
+
+    @EJB
+    private CatalogCache cache;
+
+    private final Semaphore pending = new Semaphore(MAX_PENDING);
+    /* Upload generation of each product; also locks its files */
+    private final ConcurrentMap<Integer, AtomicLong> generations =
+            new ConcurrentHashMap<>();
+    private Path directory;
+
+    @PostConstruct
+    public void init() {
+        String dir = System.getProperty("forest.images.dir");
+        directory = dir != null ? Paths.get(dir)
+                : Paths.get(System.getProperty("java.io.tmpdir"), "dukes-forest", "images");
+        try {
+            Files.createDirectories(directory);
+        } catch (IOException e) {
+            logger.log(Level.SEVERE, "Cannot create image directory " + directory, e);
+        }
+    }
+
+    /**
+     * Stores an uploaded image and schedules its variants.
+     * @param productId the product the image belongs to
+     * @param in the uploaded data, not closed
+     * @return the file name the image was stored under
+     * @throws IOException if the data is not a supported image or too big
+     */
+    public String store(final int productId, InputStream in) throws IOException {
+        Path temp = Files.createTempFile(directory, "upload", ".tmp");
+        try {
+            copy(in, temp);
+            String extension = sniff(temp);
+            if (extension == null) {
+                throw new IOException("Uploaded file is not a supported image");
+            }
+            checkSize(temp);
+            String fileName = productId + extension;
+            AtomicLong generation = generation(productId);
+            long current;
+            synchronized (generation) {
+                current = generation.incrementAndGet();
+                delete(productId);
+                Files.move(temp, directory.resolve(fileName), StandardCopyOption.ATOMIC_MOVE);
+            }
+            cache.invalidateProduct(productId);
+            scheduleVariants(productId, fileName, current);
+            return fileName;
+        } finally {
+            Files.deleteIfExists(temp);
+        }
+    }
+
+    /**
+     * @param productId the product
+     * @param variant a key of {@link #VARIANTS}, or null for the original
+     * @return the image file, or null if there is none
+     */
+    public File find(int productId, String variant) throws IOException {
+        String prefix = variant == null ? productId + "." : productId + "-" + variant + ".";
+        try (DirectoryStream<Path> files = Files.newDirectoryStream(directory, prefix + "*")) {
+            for (Path file : files) {
+                return file.toFile();
+            }
+        }
+        return null;
+    }
+
+    /* Removes the image and the variants of a product */
+    private void delete(int productId) throws IOException {
+        try (DirectoryStream<Path> files = Files.newDirectoryStream(directory, productId + "[.-]*")) {
+            for (Path file : files) {
+                Files.deleteIfExists(file);
+            }
+        }
+    }
+
+    private AtomicLong generation(int productId) {
+        AtomicLong generation = generations.get(productId);
+        if (generation == null) {
+            AtomicLong created = new AtomicLong();
+            generation = generations.putIfAbsent(productId, created);
+            if (generation == null) {
+                generation = created;
+            }
+        }
+        return generation;
+    }
+
+    private void scheduleVariants(final int productId, final String fileName,
+            final long generation) {
+        if (!pending.tryAcquire()) {
+            logger.log(Level.WARNING, "Too many images waiting to be resized, "
+                    + "product {0} keeps only its original", productId);
+            return;
+        }
+        try {
+            executor.execute(new Runnable() {
+                @Override
+                public void run() {
+                    try {
+                        createVariants(productId, directory.resolve(fileName), generation);
+                    } finally {
+                        pending.release();
+                    }
+                }
+            });
+        } catch (RuntimeException e) {
+            pending.release();
+            logger.log(Level.WARNING, "Cannot schedule image resizing", e);
+        }
+    }
+
+    private void createVariants(int productId, Path original, long generation) {
+        AtomicLong current = generation(productId);
+        try {
+            BufferedImage source = ImageIO.read(original.toFile());
+            if (source == null) {
+                return;
+            }
+            for (Map.Entry<String, Integer> variant : VARIANTS.entrySet()) {
+                BufferedImage scaled = scale(source, variant.getValue());
+                Path temp = Files.createTempFile(directory, "variant", ".tmp");
+                try {
+                    ImageIO.write(scaled, "png", temp.toFile());
+                    synchronized (current) {
+                        if (current.get() != generation) {
+                            logger.log(Level.FINE, "Image of product {0} replaced "
+                                    + "while resizing", productId);
+                            return;
+                        }
+                        Files.move(temp, directory.resolve(productId + "-" + variant.getKey() + ".png"),
+                                StandardCopyOption.ATOMIC_MOVE, StandardCopyOption.REPLACE_EXISTING);
+                    }
+                } finally {
+                    Files.deleteIfExists(temp);
+                }
+            }
+            if (current.get() == generation) {
+                cache.invalidateProduct(productId);
+            }
+        } catch (IOException e) {
+            logger.log(Level.WARNING, "Cannot resize image of product " + productId, e);
+        }
+    }
+
+    /* Reads the dimensions of the image from its header and refuses images
+     * too large to be decoded safely */
+    private static void checkSize(Path file) throws IOException {
+        try (ImageInputStream in = ImageIO.createImageInputStream(file.toFile())) {
+            Iterator<ImageReader> readers = in == null ? null : ImageIO.getImageReaders(in);
+            if (readers == null || !readers.hasNext()) {
+                throw new IOException("Uploaded file is not a supported image");
+            }
+            ImageReader reader = readers.next();
+            try {
+                reader.setInput(in, true, true);
+                long pixels = (long) reader.getWidth(0) * reader.getHeight(0);
+                if (pixels > MAX_PIXELS) {
+                    throw new IOException("Uploaded image has more than " + MAX_PIXELS + " pixels");
+                }
+            } finally {
+                reader.dispose();
+            }
+        }
+    }
+
+    private static BufferedImage scale(BufferedImage source, int maxSide) {
+        double ratio = Math.min(1.0, (double) maxSide
+                / Math.max(source.getWidth(), source.getHeight()));
+        int width = Math.max(1, (int) Math.round(source.getWidth() * ratio));
+        int height = Math.max(1, (int) Math.round(source.getHeight() * ratio));
+        BufferedImage scaled = new BufferedImage(width, height, BufferedImage.TYPE_INT_ARGB);
+        Graphics2D g = scaled.createGraphics();
+        try {
+            g.setRenderingHint(RenderingHints.KEY_INTERPOLATION,
+                    RenderingHints.VALUE_INTERPOLATION_BILINEAR);
+            g.drawImage(source, 0, 0, width, height, null);
+        } finally {
+            g.dispose();
+        }
+        return scaled;
+    }
+
+    private static void copy(InputStream in, Path target) throws IOException {
+        byte[] buffer = new byte[BUFFER_SIZE];
+        long total = 0;
+        try (OutputStream out = Files.newOutputStream(target)) {
+            int length;
+            while ((length = in.read(buffer)) > 0) {
+                total += length;
+                if (total > MAX_UPLOAD) {
+                    throw new IOException("Uploaded image is larger than " + MAX_UPLOAD + " bytes");
+                }
+                out.write(buffer, 0, length);
+            }
+        }
+    }
+
+    /* Returns the extension matching the magic bytes of the file, or null */
+    private static String sniff(Path file) throws IOException {
+        byte[] magic = new byte[8];
+        int length;
+        try (InputStream in = Files.newInputStream(file)) {
+            length = in.read(magic);
+        }
+        if (length >= 3 && (magic[0] & 0xff) == 0xff && (magic[1] & 0xff) == 0xd8
+                && (magic[2] & 0xff) == 0xff) {
+            return ".jpg";
+        }
+        if (length >= 8 && (magic[0] & 0xff) == 0x89 && magic[1] == 'P'
+                && magic[2] == 'N' && magic[3] == 'G') {
+            return ".png";
+        }
+        if (length >= 4 && magic[0] == 'G' && magic[1] == 'I' && magic[2] == 'F'
+                && magic[3] == '8') {
+            return ".gif";
+        }
+        if (length >= 2 && magic[0] == 'B' && magic[1] == 'M') {
+            return ".bmp";
+        }
+        return null;
+    }
+}
@@ -0,0 +1,181 @@
+/**
+ * Copyright (c) 2014 Oracle and/or its affiliates. All rights reserved.
+ *
+ * You may not modify, use, reproduce, or distribute this software except in
+ * compliance with  the terms of the License at:
+ * http://java.net/projects/javaeetutorial/pages/BerkeleyLicense
+ */
+package com.forest.ejb;
+
+import java.lang.management.ManagementFactory;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+import javax.annotation.PostConstruct;
+import javax.annotation.PreDestroy;
+import javax.ejb.ConcurrencyManagement;
+import javax.ejb.ConcurrencyManagementType;
+import javax.ejb.Singleton;
+import javax.ejb.Startup;
+import javax.management.JMException;
+import javax.management.MBeanServer;
+import javax.management.ObjectName;
+
+/**
+ * Totals of the facade calls since the application started, by facade
+ * method, published as the com.forest:type=QueryStatistics MXBean.
+ *
+ * @author markito
+ */
+@Singleton
+@Startup
+@ConcurrencyManagement(ConcurrencyManagementType.BEAN)
+public class QueryStatistics {
+
+    private static final Logger logger =
+            Logger.getLogger(QueryStatistics.class.getCanonicalName());
+    private static final String OBJECT_NAME = "com.forest:type=QueryStatistics";
+
+    /**
+     * Management interface of the statistics.
+     */
+    public interface QueryStatisticsMXBean {
+
+        long getQueryCount();
+
+        long getRowCount();
+
+        long getTimeMillis();
+
+        long getRepeatedCallCount();
+
+        /* calls, rows, time and repeated calls by facade method */
+        Map<String, String> getMethods();
+
+        void reset();
+    }
+
+    private final ConcurrentMap<String, Counters> methods = new ConcurrentHashMap<>();
+    private ObjectName name;
+
+    @PostConstruct
+    public void register() {
+        try {
+            name = new ObjectName(OBJECT_NAME);
+            MBeanServer server = ManagementFactory.getPlatformMBeanServer();
+            if (server.isRegistered(name)) {
+                server.unregisterMBean(name);
+            }
+            server.registerMBean(new View(), name);
+        } catch (JMException e) {
+            logger.log(Level.WARNING, "Cannot register query statistics", e);
+        }
+    }
+
+    @PreDestroy
+    public void unregister() {
+        try {
+            ManagementFactory.getPlatformMBeanServer().unregisterMBean(name);
+        } catch (JMException e) {
+            logger.log(Level.FINE, "Cannot unregister query statistics", e);
+        }
+    }
+
+    public void record(String method, int rows, long nanos) {
+        Counters counters = counters(method);
+        counters.calls.incrementAndGet();
+        counters.rows.addAndGet(rows);
+        counters.nanos.addAndGet(nanos);
+    }
+
+    /**
+     * A method was called {@link RequestQueryLog#REPEATED_CALLS} times in one
+     * request.
+     */
+    public void repeated(String method) {
+        counters(method).repeated.incrementAndGet();
+    }
+
+    private Counters counters(String method) {
+        Counters counters = methods.get(method);
+        if (counters == null) {
+            Counters created = new Counters();
+            counters = methods.putIfAbsent(method, created);
+            if (counters == null) {
+                counters = created;
+            }
+        }
+        return counters;
+    }
+
+    private static class Counters {
+
+        private final AtomicLong calls = new AtomicLong();
+        private final AtomicLong rows = new AtomicLong();
+        private final AtomicLong nanos = new AtomicLong();
+        private final AtomicLong repeated = new AtomicLong();
+
+        @Override
+        public String toString() {
+            return "calls=" + calls.get() + ", rows=" + rows.get()
+                    + ", ms=" + nanos.get() / 1000000 + ", repeated=" + repeated.get();
+        }
+    }
+
+    private class View implements QueryStatisticsMXBean {
+
+        @Override
+        public long getQueryCount() {
+            long total = 0;
+            for (Counters counters : methods.values()) {
+                total += counters.calls.get();
+            }
+            return total;
+        }
+
+        @Override
+        public long getRowCount() {
+            long total = 0;
+            for (Counters counters : methods.values()) {
+                total += counters.rows.get();
+            }
+            return total;
+        }
+
+        @Override
+        public long getTimeMillis() {
+            long total = 0;
+            for (Counters counters : methods.values()) {
+                total += counters.nanos.get();
+            }
+            return total / 1000000;
+        }
+
+        @Override
+        public long getRepeatedCallCount() {
+            long total = 0;
+            for (Counters counters : methods.values()) {
+                total += counters.repeated.get();
+            }
+            return total;
+        }
+
+        @Override
+        public Map<String, String> getMethods() {
+            Map<String, String> result = new TreeMap<>();
+            for (Map.Entry<String, Counters> entry : methods.entrySet()) {
+                result.put(entry.getKey(), entry.getValue().toString());
+            }
+            return result;
+        }
+
+        @Override
+        public void reset() {
+            methods.clear();
+        }
+    }
+}
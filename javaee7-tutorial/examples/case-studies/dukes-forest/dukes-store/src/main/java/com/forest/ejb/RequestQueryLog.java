@@ -0,0 +1,94 @@
+/**
+ * Copyright (c) 2014 Oracle and/or its affiliates. All rights reserved.
+ *
+ * You may not modify, use, reproduce, or distribute this software except in
+ * compliance with  the terms of the License at:
+ * http://java.net/projects/javaeetutorial/pages/BerkeleyLicense
+ */
+package com.forest.ejb;
+
+import java.util.HashMap;
+import java.util.LinkedHashSet;
+import java.util.Map;
+import java.util.Set;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+import javax.annotation.PreDestroy;
+import javax.enterprise.context.RequestScoped;
+import javax.inject.Inject;
+import javax.servlet.http.HttpServletRequest;
+
+/**
+ * Facade calls made while serving one request. A summary is logged when
+ * the request ends: at FINE level, or as a warning if a facade method was
+ * called {@link #REPEATED_CALLS} times or more, which usually means
+ * entities are read one by one (N+1).
+ *
+ * @author markito
+ */
+@RequestScoped
+public class RequestQueryLog {
+
+    private static final Logger logger =
+            Logger.getLogger(RequestQueryLog.class.getCanonicalName());
+    public static final int REPEATED_CALLS = 10;
+
+    @Inject
+    private HttpServletRequest request;
+    private String uri;
+    private int depth;
+    private int queries;
+    private long rows;
+    private long nanos;
+    private final Map<String, Integer> calls = new HashMap<>();
+    private final Set<String> repeated = new LinkedHashSet<>();
+
+    public void enter() {
+        if (uri == null) {
+            uri = requestURI();
+        }
+        depth++;
+    }
+
+    /**
+     * Adds a finished call. Time is only added for outermost calls, so a
+     * facade calling another one is not counted twice.
+     * @return true if this call made the method a repeated one
+     */
+    public boolean exit(String name, int rows, long elapsed) {
+        depth--;
+        queries++;
+        this.rows += rows;
+        if (depth == 0) {
+            nanos += elapsed;
+        }
+        Integer count = calls.get(name);
+        count = count == null ? 1 : count + 1;
+        calls.put(name, count);
+        return count == REPEATED_CALLS && repeated.add(name);
+    }
+
+    @PreDestroy
+    void summary() {
+        if (queries == 0) {
+            return;
+        }
+        if (repeated.isEmpty()) {
+            logger.log(Level.FINE, "{0}: {1} queries, {2} rows, {3} ms in JPA",
+                    new Object[]{uri, queries, rows, nanos / 1000000});
+        } else {
+            logger.log(Level.WARNING, "{0}: {1} queries, {2} rows, {3} ms in JPA, "
+                    + "repeated calls (N+1?) to {4}",
+                    new Object[]{uri, queries, rows, nanos / 1000000, repeated});
+        }
+    }
+
+    /* The request is only known for calls made by a web request */
+    private String requestURI() {
+        try {
+            return request.getRequestURI();
+        } catch (RuntimeException e) {
+            return "(no web request)";
+        }
+    }
+}
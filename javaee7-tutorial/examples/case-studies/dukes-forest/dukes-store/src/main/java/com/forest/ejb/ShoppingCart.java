@@ -106,7 +106,6 @@ public class ShoppingCart implements Serializable {
             }
 
             CustomerOrder order = new CustomerOrder();
-            List<OrderDetail> details = new ArrayList<>();
 
             OrderStatus orderStatus = new OrderStatus();
             orderStatus.setId(1); //by default the initial status
@@ -116,23 +115,8 @@ public class ShoppingCart implements Serializable {
             order.setAmount(getTotal());
             order.setCustomer(user);
 
-            facade.create(order);
-
-            for (Product p : getCartItems()) {
-                OrderDetail detail = new OrderDetail();
-
-                OrderDetailPK pk = new OrderDetailPK(order.getId(), p.getId());
-                //TODO: next version will handle qty on shoppingCart 
-                detail.setQty(1);
-                detail.setProduct(p);
-                //detail.setCustomerOrder(order);
-                detail.setOrderDetailPK(pk);
-
-                details.add(detail);
-            }
-
-            order.setOrderDetailList(details);
-            facade.edit(order);
+            // order and details in one transaction
+            facade.placeOrder(order, getCartItems());
 
             OrderEvent event = orderToEvent(order);
 
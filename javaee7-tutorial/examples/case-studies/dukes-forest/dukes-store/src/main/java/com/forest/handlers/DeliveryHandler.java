@@ -44,8 +44,9 @@ public class DeliveryHandler implements IOrderHandler, Serializable {
         try {           
             logger.log(Level.INFO, "Order #{0} has been paid in the amount of {1}. Order is now ready for delivery!", new Object[]{event.getOrderID(), event.getAmount()});
                                     
-            orderBean.setOrderStatus(event.getOrderID(), String.valueOf(OrderBean.Status.READY_TO_SHIP.getStatus()));
-            CustomerOrder order = orderBean.getOrderById(event.getOrderID());
+            // the updated order is sent as is, no need to read it again
+            CustomerOrder order = orderBean.changeStatus(event.getOrderID(), OrderBean.Status.READY_TO_SHIP);
+            event.setStatusID(OrderBean.Status.READY_TO_SHIP.getStatus());
             if (order != null) {
                 orderPublisher.sendMessage(order);
                
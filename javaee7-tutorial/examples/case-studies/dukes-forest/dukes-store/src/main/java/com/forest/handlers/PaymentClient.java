@@ -0,0 +1,214 @@
+/**
+ * Copyright (c) 2014 Oracle and/or its affiliates. All rights reserved.
+ *
+ * You may not modify, use, reproduce, or distribute this software except in
+ * compliance with  the terms of the License at:
+ * http://java.net/projects/javaeetutorial/pages/BerkeleyLicense
+ */
+package com.forest.handlers;
+
+import com.forest.events.OrderEvent;
+import java.io.IOException;
+import java.io.UnsupportedEncodingException;
+import java.net.ConnectException;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+import javax.annotation.PostConstruct;
+import javax.annotation.PreDestroy;
+import javax.annotation.Resource;
+import javax.ejb.ConcurrencyManagement;
+import javax.ejb.ConcurrencyManagementType;
+import javax.ejb.Singleton;
+import javax.enterprise.concurrent.ManagedExecutorService;
+import javax.enterprise.concurrent.ManagedScheduledExecutorService;
+import javax.ws.rs.client.Client;
+import javax.ws.rs.client.ClientBuilder;
+import javax.ws.rs.client.ClientRequestContext;
+import javax.ws.rs.client.ClientRequestFilter;
+import javax.ws.rs.client.Entity;
+import javax.ws.rs.client.InvocationCallback;
+import javax.ws.rs.core.MediaType;
+import javax.ws.rs.core.Response;
+import javax.xml.bind.DatatypeConverter;
+
+/**
+ * Asynchronous client of the Payment service, shared by all orders.
+ *
+ * One JAX-RS client (and its connection pool) is created for the
+ * application. Calls have connect and read timeouts, and at most
+ * {@link #MAX_CONCURRENT} are in progress. An order that finds no free
+ * slot, or whose request could not be sent, is tried again every
+ * {@link #RETRY_DELAY_MS}, up to {@link #MAX_ATTEMPTS} times, without
+ * blocking the caller. A payment whose outcome cannot be known (a read
+ * timeout, a server error, or no attempt left) is reported as
+ * {@link Result#UNKNOWN}, never as declined. Results are handed to the
+ * managed executor so callbacks run with the application context.
+ *
+ * @author markito
+ */
+@Singleton
+@ConcurrencyManagement(ConcurrencyManagementType.BEAN)
+public class PaymentClient {
+
+    private static final Logger logger = Logger.getLogger(PaymentClient.class.getCanonicalName());
+    private static final String ENDPOINT = "http://localhost:8080/dukes-payment/payment/pay";
+    public static final int MAX_CONCURRENT = 20;
+    public static final long RETRY_DELAY_MS = 5000;
+    public static final int MAX_ATTEMPTS = 12;
+    public static final int CONNECT_TIMEOUT_MS = 2000;
+    public static final int READ_TIMEOUT_MS = 10000;
+
+    /**
+     * Outcome of a payment.
+     */
+    public enum Result {
+
+        APPROVED,
+        DECLINED,
+        /* the service may or may not have taken the payment */
+        UNKNOWN
+    }
+
+    /**
+     * Receives the result of a payment.
+     */
+    public interface Callback {
+
+        void onResult(Result result);
+    }
+
+    @Resource
+    private ManagedExecutorService executor;
+    @Resource
+    private ManagedScheduledExecutorService scheduler;
+    private final Semaphore bulkhead = new Semaphore(MAX_CONCURRENT);
+    private Client client;
+
+    @PostConstruct
+    public void init() {
+        client = ClientBuilder.newClient();
+        // Jersey client properties, ignored by other implementations
+        client.property("jersey.config.client.connectTimeout", CONNECT_TIMEOUT_MS);
+        client.property("jersey.config.client.readTimeout", READ_TIMEOUT_MS);
+        client.register(new AuthClientRequestFilter("jack@example.com", "1234"));
+    }
+
+    @PreDestroy
+    public void destroy() {
+        client.close();
+    }
+
+    /**
+     * Sends the payment request and returns without waiting for the answer.
+     *
+     * @param order the order to pay
+     * @param callback called once with the result
+     */
+    public void pay(OrderEvent order, Callback callback) {
+        pay(order, callback, 1);
+    }
+
+    private void pay(final OrderEvent order, final Callback callback, final int attempt) {
+        if (!bulkhead.tryAcquire()) {
+            logger.log(Level.INFO, "Payment service busy, order {0} waits", order.getOrderID());
+            retry(order, callback, attempt);
+            return;
+        }
+
+        try {
+            client.target(ENDPOINT)
+                    .request(MediaType.APPLICATION_XML)
+                    .async()
+                    .post(Entity.entity(order, MediaType.APPLICATION_XML),
+                    new InvocationCallback<Response>() {
+                        @Override
+                        public void completed(Response resp) {
+                            bulkhead.release();
+                            int status = resp.getStatus();
+                            resp.close();
+                            logger.log(Level.INFO, "[PaymentClient] Response status {0}", status);
+                            if (status == 200) {
+                                dispatch(callback, Result.APPROVED);
+                            } else if (status >= 500) {
+                                dispatch(callback, Result.UNKNOWN);
+                            } else {
+                                dispatch(callback, Result.DECLINED);
+                            }
+                        }
+
+                        @Override
+                        public void failed(Throwable t) {
+                            bulkhead.release();
+                            logger.log(Level.WARNING, "[PaymentClient] Payment failed: {0}", t.toString());
+                            if (t.getCause() instanceof ConnectException) {
+                                // the request never reached the service
+                                retry(order, callback, attempt);
+                            } else {
+                                dispatch(callback, Result.UNKNOWN);
+                            }
+                        }
+                    });
+        } catch (RuntimeException e) {
+            bulkhead.release();
+            logger.log(Level.WARNING, "[PaymentClient] Cannot call payment service", e);
+            retry(order, callback, attempt);
+        }
+    }
+
+    /* Tries an order that was not sent again later */
+    private void retry(final OrderEvent order, final Callback callback, final int attempt) {
+        if (attempt >= MAX_ATTEMPTS) {
+            logger.log(Level.WARNING, "Payment of order {0} not sent after {1} attempts",
+                    new Object[]{order.getOrderID(), attempt});
+            dispatch(callback, Result.UNKNOWN);
+            return;
+        }
+        try {
+            scheduler.schedule(new Runnable() {
+                @Override
+                public void run() {
+                    pay(order, callback, attempt + 1);
+                }
+            }, RETRY_DELAY_MS, TimeUnit.MILLISECONDS);
+        } catch (RejectedExecutionException e) {
+            logger.log(Level.SEVERE, "Cannot retry payment of order " + order.getOrderID(), e);
+            dispatch(callback, Result.UNKNOWN);
+        }
+    }
+
+    private void dispatch(final Callback callback, final Result result) {
+        try {
+            executor.execute(new Runnable() {
+                @Override
+                public void run() {
+                    callback.onResult(result);
+                }
+            });
+        } catch (RejectedExecutionException e) {
+            logger.log(Level.SEVERE, "Payment result lost", e);
+        }
+    }
+
+    /* Client filter for basic HTTP auth */
+    static class AuthClientRequestFilter implements ClientRequestFilter {
+        private final String user;
+        private final String password;
+        public AuthClientRequestFilter(String user, String password) {
+            this.user = user;
+            this.password = password;
+        }
+        @Override
+        public void filter(ClientRequestContext requestContext) throws IOException {
+            try {
+                requestContext.getHeaders().add(
+                        "Authorization",
+                        "BASIC " + DatatypeConverter.printBase64Binary(
+                                   (user+":"+password).getBytes("UTF-8"))
+                );
+            } catch (UnsupportedEncodingException ex) { }
+        }
+    }
+}
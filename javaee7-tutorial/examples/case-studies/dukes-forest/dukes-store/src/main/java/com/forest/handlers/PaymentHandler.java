@@ -11,9 +11,7 @@ import com.forest.ejb.OrderBean;
 import com.forest.events.OrderEvent;
 import com.forest.qualifiers.New;
 import com.forest.qualifiers.Paid;
-import java.io.IOException;
 import java.io.Serializable;
-import java.io.UnsupportedEncodingException;
 import java.util.logging.Level;
 import java.util.logging.Logger;
 import javax.ejb.Asynchronous;
@@ -22,14 +20,6 @@ import javax.ejb.Stateless;
 import javax.enterprise.event.Event;
 import javax.enterprise.event.Observes;
 import javax.inject.Inject;
-import javax.ws.rs.client.Client;
-import javax.ws.rs.client.ClientBuilder;
-import javax.ws.rs.client.ClientRequestContext;
-import javax.ws.rs.client.ClientRequestFilter;
-import javax.ws.rs.client.Entity;
-import javax.ws.rs.core.MediaType;
-import javax.ws.rs.core.Response;
-import javax.xml.bind.DatatypeConverter;
 
 /**
  * CDI event handler that calls Payment service for new orders. It will
@@ -37,6 +27,11 @@ import javax.xml.bind.DatatypeConverter;
  * <code>OrderEvent</code> with
  * <code>@New</code> <b>qualifier</b>.
  *
+ * The call is made through the shared, asynchronous {@link PaymentClient};
+ * the new status is written when the answer arrives and carried in the
+ * <code>@Paid</code> event. An order whose payment outcome is unknown keeps
+ * its status.
+ *
  * @author markito
  * @see com.forest.events.OrderEvent
  */
@@ -45,69 +40,49 @@ public class PaymentHandler implements IOrderHandler, Serializable {
 
     private static final Logger logger = Logger.getLogger(PaymentHandler.class.getCanonicalName());
     private static final long serialVersionUID = 4979287107039479577L;
-    private static final String ENDPOINT = "http://localhost:8080/dukes-payment/payment/pay";
     @Inject
     @Paid
     Event<OrderEvent> eventManager;
+    @EJB
+    OrderBean orderBean;
     /**
-     * Payment service endpoint
+     * Payment service client
      */
     @EJB
-    OrderBean orderBean;
+    PaymentClient paymentClient;
 
     @Override
     @Asynchronous
-    public void onNewOrder(@Observes @New OrderEvent event) {
+    public void onNewOrder(@Observes @New final OrderEvent event) {
 
         logger.log(Level.FINEST, "{0} Event being processed by PaymentHandler",
                 Thread.currentThread().getName());
 
-        if (processPayment(event)) {
-            orderBean.setOrderStatus(event.getOrderID(),
-                    String.valueOf(OrderBean.Status.PENDING_PAYMENT.getStatus()));
-            logger.info("Payment Approved");
-            eventManager.fire(event);
-        } else {
-            orderBean.setOrderStatus(event.getOrderID(),
-                    String.valueOf(OrderBean.Status.CANCELLED_PAYMENT.getStatus()));
-            logger.info("Payment Denied");
-        }
-    }
-
-    private boolean processPayment(OrderEvent order) {
-
-        boolean success = false;
-        Client client = ClientBuilder.newClient();
-        client.register(new AuthClientRequestFilter("jack@example.com", "1234"));
-        Response resp = client.target(ENDPOINT)
-                .request(MediaType.APPLICATION_XML)
-                .post(Entity.entity(order, MediaType.APPLICATION_XML), Response.class);
-        int status = resp.getStatus();
-        if (status == 200) {
-            success = true;
-        }
-        logger.log(Level.INFO, "[PaymentHandler] Response status {0}", status);
-        client.close();
-        return success;
-    }
-    
-    /* Client filter for basic HTTP auth */
-    class AuthClientRequestFilter implements ClientRequestFilter {
-        private final String user;
-        private final String password;
-        public AuthClientRequestFilter(String user, String password) {
-            this.user = user;
-            this.password = password;
-        }
-        @Override
-        public void filter(ClientRequestContext requestContext) throws IOException {
-            try {
-                requestContext.getHeaders().add(
-                        "Authorization",
-                        "BASIC " + DatatypeConverter.printBase64Binary(
-                                   (user+":"+password).getBytes("UTF-8"))
-                );
-            } catch (UnsupportedEncodingException ex) { }
-        }
+        final OrderBean orders = orderBean;
+        final Event<OrderEvent> paidEvents = eventManager;
+        paymentClient.pay(event, new PaymentClient.Callback() {
+            @Override
+            public void onResult(PaymentClient.Result result) {
+                switch (result) {
+                    case APPROVED:
+                        orders.changeStatus(event.getOrderID(), OrderBean.Status.PENDING_PAYMENT);
+                        event.setStatusID(OrderBean.Status.PENDING_PAYMENT.getStatus());
+                        logger.info("Payment Approved");
+                        paidEvents.fire(event);
+                        break;
+                    case DECLINED:
+                        orders.changeStatus(event.getOrderID(), OrderBean.Status.CANCELLED_PAYMENT);
+                        event.setStatusID(OrderBean.Status.CANCELLED_PAYMENT.getStatus());
+                        logger.info("Payment Denied");
+                        break;
+                    default:
+                        // the customer may have paid: leave the order as it
+                        // is for someone to check with the payment service
+                        logger.log(Level.WARNING, "Payment of order {0} unknown, order left pending",
+                                event.getOrderID());
+                        break;
+                }
+            }
+        });
     }
 }
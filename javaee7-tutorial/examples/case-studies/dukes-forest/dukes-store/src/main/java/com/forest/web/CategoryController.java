@@ -11,8 +11,10 @@ import com.forest.ejb.CategoryBean;
 import com.forest.entity.Category;
 import com.forest.web.util.AbstractPaginationHelper;
 import com.forest.web.util.JsfUtil;
+import com.forest.web.util.KeysetPaginationHelper;
 import com.forest.web.util.PageNavigation;
 import java.io.Serializable;
+import java.util.List;
 import java.util.ResourceBundle;
 import javax.ejb.EJB;
 import javax.faces.bean.ManagedBean;
@@ -22,7 +24,6 @@ import javax.faces.context.FacesContext;
 import javax.faces.convert.Converter;
 import javax.faces.convert.FacesConverter;
 import javax.faces.model.DataModel;
-import javax.faces.model.ListDataModel;
 import javax.faces.model.SelectItem;
 
 @ManagedBean (name= "categoryController")
@@ -31,6 +32,8 @@ public class CategoryController implements Serializable {
     
     private static final String BUNDLE = "bundles.Bundle";
     private static final long serialVersionUID = 2310259107429450847L;
+    // how long the "n..m/count" total may be reused
+    private static final long COUNT_MAX_AGE = 30000;
 
     private Category current;
     private DataModel items = null;
@@ -56,17 +59,21 @@ public class CategoryController implements Serializable {
 
     public AbstractPaginationHelper getPagination() {
         if (pagination == null) {
-            pagination = new AbstractPaginationHelper(AbstractPaginationHelper.DEFAULT_SIZE) {
+            pagination = new KeysetPaginationHelper<Category, Integer>(AbstractPaginationHelper.DEFAULT_SIZE) {
 
                 @Override
                 public int getItemsCount() {
-                    return getFacade().count();
+                    return getFacade().countCached(COUNT_MAX_AGE);
                 }
 
                 @Override
-                public DataModel createPageDataModel() {
-                    return new ListDataModel(getFacade().findRange(new int[]{getPageFirstItem(), 
-                        getPageFirstItem() + getPageSize()}));
+                public List<Category> fetchPage(Integer after, int maxResults) {
+                    return getFacade().findRangeAfter(after, maxResults);
+                }
+
+                @Override
+                public Integer getKey(Category row) {
+                    return row.getId();
                 }
             };
         }
@@ -150,17 +157,17 @@ public class CategoryController implements Serializable {
     }
 
     private void updateCurrentItem() {
-        int count = getFacade().count();
-        if (selectedItemIndex >= count) {
-            // selected index cannot be bigger than number of items:
-            selectedItemIndex = count - 1;
-            // go to previous page if last page disappeared:
-            if (pagination.getPageFirstItem() >= count) {
-                pagination.previousPage();
-            }
-        }
-        if (selectedItemIndex >= 0) {
-            current = getFacade().findRange(new int[]{selectedItemIndex, selectedItemIndex + 1}).get(0);
+        // stay on the same row of the page, or on its last row if the page
+        // got shorter; an emptied page falls back to the previous one
+        DataModel page = getItems();
+        int row = Math.min(selectedItemIndex - pagination.getPageFirstItem(),
+                page.getRowCount() - 1);
+        if (row >= 0) {
+            page.setRowIndex(row);
+            current = (Category) page.getRowData();
+            selectedItemIndex = pagination.getPageFirstItem() + row;
+        } else {
+            selectedItemIndex = -1;
         }
     }
 
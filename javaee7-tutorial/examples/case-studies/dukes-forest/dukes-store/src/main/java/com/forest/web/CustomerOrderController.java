@@ -143,11 +143,13 @@ public class CustomerOrderController implements Serializable {
         selectedItemIndex = pagination.getPageFirstItem() + getItems().getRowIndex();
 
         try {
-            // remove from JMS queue
-            orderJMSManager.deleteMessage(current.getId());
-
             // update DB order status
-            ejbFacade.setOrderStatus(current.getId(), String.valueOf(OrderBean.Status.CANCELLED_MANUAL.getStatus()));
+            CustomerOrder order = ejbFacade.changeStatus(current.getId(), OrderBean.Status.CANCELLED_MANUAL);
+
+            // tell Shipment, which drops the order from its pending list
+            if (order != null) {
+                orderJMSManager.sendMessage(order);
+            }
 
 
             recreateModel();
@@ -8,13 +8,15 @@
 package com.forest.web;
 
 import com.forest.ejb.ProductBean;
+import com.forest.ejb.ProductImageStore;
 import com.forest.entity.Product;
 import com.forest.web.util.AbstractPaginationHelper;
 import com.forest.web.util.JsfUtil;
+import com.forest.web.util.KeysetPaginationHelper;
 import com.forest.web.util.PageNavigation;
+import java.io.IOException;
 import java.io.InputStream;
 import java.io.Serializable;
-import java.util.ArrayList;
 import java.util.List;
 import java.util.ResourceBundle;
 import java.util.logging.Level;
@@ -26,7 +28,6 @@ import javax.faces.context.FacesContext;
 import javax.faces.convert.Converter;
 import javax.faces.convert.FacesConverter;
 import javax.faces.model.DataModel;
-import javax.faces.model.ListDataModel;
 import javax.faces.model.SelectItem;
 import javax.inject.Named;
 import javax.servlet.http.Part;
@@ -38,11 +39,15 @@ public class ProductController implements Serializable {
     private final static Logger logger = Logger.getLogger(ProductController.class.getCanonicalName());
     private static final String BUNDLE = "bundles.Bundle";
     private static final long serialVersionUID = -1835103655519682074L;
+    // how long the "n..m/count" total may be reused
+    private static final long COUNT_MAX_AGE = 30000;
     private Product current;
     private DataModel items = null;
     @EJB
     private com.forest.ejb.ProductBean ejbFacade;
-    private AbstractPaginationHelper pagination;
+    @EJB
+    private ProductImageStore imageStore;
+    private KeysetPaginationHelper<Product, Integer> pagination;
     private int selectedItemIndex;
     // used for wizard
     private int step = 1;
@@ -50,16 +55,6 @@ public class ProductController implements Serializable {
     
     private Part filePart;
     
-    private static final List<String> EXTENSIONS_ALLOWED = new ArrayList<>();
-
-    static {
-        // images only
-        EXTENSIONS_ALLOWED.add(".jpg");
-        EXTENSIONS_ALLOWED.add(".bmp");
-        EXTENSIONS_ALLOWED.add(".png");
-        EXTENSIONS_ALLOWED.add(".gif");
-    }
-
     private String getFileName(Part part) {
         String partHeader = part.getHeader("content-disposition");
         logger.log(Level.INFO, "Part Header = {0}", partHeader);
@@ -73,40 +68,25 @@ public class ProductController implements Serializable {
     }
 
     
+    /**
+     * Streams the uploaded image to the image store, which checks its type
+     * and resizes it in the background, and records its file name.
+     */
     public void upload() {
-        logger.info(getFilePart().getName());
-
-        try {
-            InputStream is = getFilePart().getInputStream();
-
-            int i = is.available();
-            byte[] b = new byte[i];
-            is.read(b);
-
-            logger.log(Level.INFO, "Length : {0}", b.length);
-            String fileName = getFileName(getFilePart());
-            logger.log(Level.INFO, "File name : {0}", fileName);
-
-            // generate *unique* filename 
-            final String extension = fileName.substring(fileName.length() - 4);
-
-            if (!EXTENSIONS_ALLOWED.contains(extension)) {
-                logger.severe("User tried to upload file that's not an image. Upload canceled.");
-                JsfUtil.addErrorMessage(new Exception("Error trying to upload file"), ResourceBundle.getBundle(BUNDLE).getString("Error trying to upload file"));
-                //response.sendRedirect("admin/product/List.xhtml?errMsg=Error trying to upload file");
-                return;
-            }
+        String fileName = getFileName(getFilePart());
+        logger.log(Level.INFO, "File name : {0}", fileName);
 
-//            Integer id = current.getId();
-//            current = ejbFacade.find(2);
-            current.setImgSrc(b);
+        try (InputStream is = getFilePart().getInputStream()) {
+            imageStore.store(current.getId(), is);
             current.setImg(fileName);
-            
+
             ejbFacade.edit(current);
             setStep(3);
             JsfUtil.addSuccessMessage("Product image successfuly uploaded!");
-            
-        } catch (Exception ex) {
+
+        } catch (IOException ex) {
+            logger.log(Level.SEVERE, "Upload canceled: {0}", ex.getMessage());
+            JsfUtil.addErrorMessage(ex, ResourceBundle.getBundle(BUNDLE).getString("ProductImageUploadError"));
         }
 
     }
@@ -122,7 +102,7 @@ public class ProductController implements Serializable {
 
     public String showAll() {
         recreateModel();
-        categoryId = 0; // show all products
+        setCategoryId(0); // show all products
 
         return "product/List";
     }
@@ -135,21 +115,24 @@ public class ProductController implements Serializable {
 
         if (pagination == null) {
 
-            pagination = new AbstractPaginationHelper(AbstractPaginationHelper.DEFAULT_SIZE) {
+            pagination = new KeysetPaginationHelper<Product, Integer>(AbstractPaginationHelper.DEFAULT_SIZE) {
                 @Override
                 public int getItemsCount() {
-                    return getFacade().count();
+                    return getFacade().countCached(COUNT_MAX_AGE);
                 }
 
                 @Override
-                public DataModel createPageDataModel() {
+                public List<Product> fetchPage(Integer after, int maxResults) {
                     if (categoryId != 0) {
-                        return new ListDataModel(getFacade().findByCategory(new int[]{getPageFirstItem(),
-                            getPageFirstItem() + getPageSize()}, categoryId));
+                        return getFacade().findByCategoryAfter(after, maxResults, categoryId);
                     }
 
-                    return new ListDataModel(getFacade().findRange(new int[]{getPageFirstItem(),
-                        getPageFirstItem() + getPageSize()}));
+                    return getFacade().findRangeAfter(after, maxResults);
+                }
+
+                @Override
+                public Integer getKey(Product row) {
+                    return row.getId();
                 }
             };
         }
@@ -175,7 +158,7 @@ public class ProductController implements Serializable {
     }
 
     public PageNavigation prepareView() {
-        current = (Product) getItems().getRowData();
+        current = getRowForEdit(getItems());
         selectedItemIndex = pagination.getPageFirstItem() + getItems().getRowIndex();
         return PageNavigation.VIEW;
     }
@@ -208,7 +191,7 @@ public class ProductController implements Serializable {
     }
 
     public PageNavigation prepareEdit() {
-        current = (Product) getItems().getRowData();
+        current = getRowForEdit(getItems());
         selectedItemIndex = pagination.getPageFirstItem() + getItems().getRowIndex();
 
         return PageNavigation.EDIT;
@@ -229,7 +212,7 @@ public class ProductController implements Serializable {
     }
 
     public PageNavigation destroy() {
-        current = (Product) getItems().getRowData();
+        current = getRowForEdit(getItems());
         selectedItemIndex = pagination.getPageFirstItem() + getItems().getRowIndex();
         performDestroy();
         recreateModel();
@@ -259,20 +242,26 @@ public class ProductController implements Serializable {
     }
 
     private void updateCurrentItem() {
-        int count = getFacade().count();
-        if (selectedItemIndex >= count) {
-            // selected index cannot be bigger than number of items:
-            selectedItemIndex = count - 1;
-            // go to previous page if last page disappeared:
-            if (pagination.getPageFirstItem() >= count) {
-                pagination.previousPage();
-            }
-        }
-        if (selectedItemIndex >= 0) {
-            current = getFacade().findRange(new int[]{selectedItemIndex, selectedItemIndex + 1}).get(0);
+        // stay on the same row of the page, or on its last row if the page
+        // got shorter; an emptied page falls back to the previous one
+        DataModel page = getItems();
+        int row = Math.min(selectedItemIndex - pagination.getPageFirstItem(),
+                page.getRowCount() - 1);
+        if (row >= 0) {
+            page.setRowIndex(row);
+            current = getRowForEdit(page);
+            selectedItemIndex = pagination.getPageFirstItem() + row;
+        } else {
+            selectedItemIndex = -1;
         }
     }
 
+    /* The rows of a category come from the catalog cache and are shared, so
+     * the product to work on is read again */
+    private Product getRowForEdit(DataModel page) {
+        return getFacade().findForEdit(((Product) page.getRowData()).getId());
+    }
+
     public DataModel getItems() {
         if (items == null) {
             items = getPagination().createPageDataModel();
@@ -316,6 +305,10 @@ public class ProductController implements Serializable {
      * @param categoryId the categoryId to set
      */
     public void setCategoryId(int categoryId) {
+        if (categoryId != this.categoryId && pagination != null) {
+            // keys of one category mean nothing in another
+            pagination.firstPage();
+        }
         this.categoryId = categoryId;
     }
 
@@ -343,7 +336,7 @@ public class ProductController implements Serializable {
             }
             ProductController controller = (ProductController) facesContext.getApplication().getELResolver().
                     getValue(facesContext.getELContext(), null, "productController");
-            return controller.ejbFacade.find(getKey(value));
+            return controller.ejbFacade.findForEdit(getKey(value));
         }
 
         java.lang.Integer getKey(String value) {
@@ -8,10 +8,7 @@
 package com.forest.web.util;
 
 import com.forest.ejb.ProductBean;
-import com.forest.entity.Product;
-import java.io.BufferedOutputStream;
-import java.io.ByteArrayInputStream;
-import java.io.Closeable;
+import com.forest.ejb.ProductImage;
 import java.io.IOException;
 import java.util.logging.Level;
 import java.util.logging.Logger;
@@ -23,120 +20,148 @@ import javax.servlet.http.HttpServletRequest;
 import javax.servlet.http.HttpServletResponse;
 
 /**
- * Image servlet based on BalusC (@link below) implementation
+ * Image servlet based on BalusC (@link below) implementation.
+ *
+ * Images come from the catalog cache, which keeps them off the heap, and
+ * are sent with an ETag so browsers revalidate instead of downloading them
+ * again. Single byte ranges are supported.
  * @author balusc
  * @author markito
  * @link http://balusc.blogspot.com/2007/04/imageservlet.html
  */
 @WebServlet(urlPatterns = "/image/*")
 public class ImageServlet extends HttpServlet {
-    
+
     private static final long serialVersionUID = 6439315738094263474L;
 
     @EJB
     ProductBean productBean;
     private static final Logger logger = Logger.getLogger(ImageServlet.class.getCanonicalName());
-    // Constants 
+    // Constants
     private static final int DEFAULT_BUFFER_SIZE = 10240; // 10KB.
-    // Properties 
-    private final String UPLOAD_DIR = "/upload/img/";
-    //private final String UPLOAD_DIR = ResourceBundle.getBundle("bundles.Bundle").getString("UPLOAD_LOCATION");
-
-    // Actions 
-    @Override
-    public void init() throws ServletException {
-        // In a Windows environment with the Applicationserver running on the
-        // c: volume, the above path is exactly the same as "c:\images".
-        // In UNIX, it is just straightforward "/images".
-        // If you have stored files in the WebContent of a WAR, for example in the
-        // "/WEB-INF/images" folder, then you can retrieve the absolute path by:
-        // this.imagePath = getServletContext().getRealPath("/WEB-INF/images");
-    }
+    // Browsers reuse an image for an hour, then revalidate it with its ETag
+    private static final String CACHE_CONTROL = "public, max-age=3600";
 
+    // Actions
     @Override
     protected void doGet(HttpServletRequest request, HttpServletResponse response)
             throws ServletException, IOException {
-        // Get requested image by path info.
+        // Get requested image by path info, size is an optional variant
+        // such as "thumb".
         String requestedImage = request.getParameter("id"); //request.getPathInfo();
-        
 
-        // Check if file name is actually supplied to the request URI.
-        if (requestedImage == null) {
-            // Do your thing if the image is not supplied to the request URI.
-            // Throw an exception, or send 404, or show default/warning image, or just ignore it.
+        ProductImage image = null;
+        try {
+            if (requestedImage != null) {
+                image = productBean.findImage(Integer.parseInt(requestedImage),
+                        request.getParameter("size"));
+            }
+        } catch (NumberFormatException e) {
+            logger.log(Level.FINE, "Invalid image id {0}", requestedImage);
+        }
 
+        if (image == null) {
             response.sendError(HttpServletResponse.SC_NOT_FOUND); // 404.
             return;
         }
-        Product p = productBean.find(Integer.parseInt(requestedImage));
 
-        if ((p == null) || (p.getImgSrc() == null)) {
-            response.sendError(HttpServletResponse.SC_NOT_FOUND); // 404.
-        } else {
-            /*
-            // Decode the file name (might contain spaces and on) and prepare file object.
-            File image = new File(getServletContext().getRealPath(UPLOAD_DIR), URLDecoder.decode(requestedImage, "UTF-8"));
-            
-            // Check if file actually exists in filesystem.
-            if (!image.exists()) {
-            // Throw an exception, or send 404, or show default/warning image, or just ignore it.
-            logger.info("Uploaded image already exists");
-            response.sendError(HttpServletResponse.SC_NOT_FOUND); // 404.
+        response.setHeader("ETag", image.getETag());
+        response.setHeader("Cache-Control", CACHE_CONTROL);
+        response.setHeader("Accept-Ranges", "bytes");
+
+        // The browser already has this image
+        if (matches(request.getHeader("If-None-Match"), image.getETag())) {
+            response.setStatus(HttpServletResponse.SC_NOT_MODIFIED); // 304.
             return;
+        }
+
+        int length = image.getLength();
+        int start = 0;
+        int end = length - 1;
+        String range = request.getHeader("Range");
+        String ifRange = request.getHeader("If-Range");
+        if (range != null && (ifRange == null || ifRange.equals(image.getETag()))) {
+            int[] bounds = parseRange(range, length);
+            if (bounds == null) {
+                response.setHeader("Content-Range", "bytes */" + length);
+                response.sendError(HttpServletResponse.SC_REQUESTED_RANGE_NOT_SATISFIABLE); // 416.
+                return;
             }
-            
-            // Get content type by filename.
-            String contentType = getServletContext().getMimeType(image.getName());
-            
-            // Check if file is actually an image (avoid download of other files by hackers!).
-            // For all content types, see: http://www.w3schools.com/media/media_mimeref.asp
-            if (contentType == null || !contentType.startsWith("image")) {
-            // Throw an exception, or send 404, or show default/warning image, or just ignore it.
-            logger.info("Uploaded image doesn't look like a real image");
-            response.sendError(HttpServletResponse.SC_NOT_FOUND); // 404.
-            return;
+            if (bounds.length == 2) {
+                start = bounds[0];
+                end = bounds[1];
+                response.setStatus(HttpServletResponse.SC_PARTIAL_CONTENT); // 206.
+                response.setHeader("Content-Range", "bytes " + start + "-" + end + "/" + length);
             }
-             */
-            // Init servlet response.
-            response.reset();
-            response.setBufferSize(DEFAULT_BUFFER_SIZE);
-            //response.setContentType("image/jpg");
-            response.setHeader("Content-Length", String.valueOf(p.getImgSrc().length));
-            response.setHeader("Content-Disposition", "inline; filename=\"" + p.getName() + "\"");
+        }
 
-            // Prepare streams.
-            ByteArrayInputStream byteInputStream = null;
-            BufferedOutputStream output = null;
+        response.setBufferSize(DEFAULT_BUFFER_SIZE);
+        if (image.getFileName() != null) {
+            String contentType = getServletContext().getMimeType(image.getFileName());
+            if (contentType != null) {
+                response.setContentType(contentType);
+            }
+            response.setHeader("Content-Disposition", "inline; filename=\"" + image.getFileName() + "\"");
+        }
+        response.setContentLength(end - start + 1);
+        image.writeTo(response.getOutputStream(), start, end - start + 1);
+    }
 
-            try {
-                // Open streams.
-                byteInputStream = new ByteArrayInputStream(p.getImgSrc());
-                output = new BufferedOutputStream(response.getOutputStream(), DEFAULT_BUFFER_SIZE);
+    // Helpers (can be refactored to public utility class)
 
-              // Write file contents to response.
-                byte[] buffer = new byte[DEFAULT_BUFFER_SIZE];
-                int length;
-                while ((length = byteInputStream.read(buffer)) > 0) {
-                    output.write(buffer, 0, length);
-                }
-            } finally {
-                // close streams.
-                close(output);
-                close(byteInputStream);
+    /* True if the If-None-Match header lists the ETag or is "*" */
+    private static boolean matches(String ifNoneMatch, String etag) {
+        if (ifNoneMatch == null) {
+            return false;
+        }
+        for (String tag : ifNoneMatch.split(",")) {
+            tag = tag.trim();
+            if (tag.startsWith("W/")) {
+                tag = tag.substring(2);
+            }
+            if (tag.equals(etag) || tag.equals("*")) {
+                return true;
             }
         }
+        return false;
     }
 
-    // Helpers (can be refactored to public utility class) 
-    private static void close(Closeable resource) {
-        if (resource != null) {
-            try {
-                resource.close();
-            } catch (IOException e) {
-                logger.log(Level.SEVERE, 
-                        "Problems during image resource manipulation. {0}", 
-                        e.getMessage());
+    /*
+     * Parses a "bytes=first-last", "bytes=first-" or "bytes=-suffix" range.
+     * Returns {first, last}, an empty array to send the whole image (several
+     * ranges, or a header that is not a byte range) or null if the range
+     * cannot be satisfied.
+     */
+    private static int[] parseRange(String header, int length) {
+        if (!header.startsWith("bytes=") || header.indexOf(',') >= 0) {
+            return new int[0];
+        }
+        String spec = header.substring("bytes=".length()).trim();
+        int dash = spec.indexOf('-');
+        if (dash < 0) {
+            return new int[0];
+        }
+        try {
+            String first = spec.substring(0, dash).trim();
+            String last = spec.substring(dash + 1).trim();
+            long start;
+            long end;
+            if (first.isEmpty()) {
+                start = length - Long.parseLong(last);
+                end = length - 1;
+            } else {
+                start = Long.parseLong(first);
+                end = last.isEmpty() ? length - 1 : Math.min(Long.parseLong(last), length - 1);
+            }
+            if (start < 0) {
+                start = 0;
+            }
+            if (start >= length || start > end) {
+                return null;
             }
+            return new int[]{(int) start, (int) end};
+        } catch (NumberFormatException e) {
+            return new int[0];
         }
     }
 }
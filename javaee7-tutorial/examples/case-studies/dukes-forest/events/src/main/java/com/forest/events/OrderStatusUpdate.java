@@ -0,0 +1,60 @@
+/**
+ * Copyright (c) 2014 Oracle and/or its affiliates. All rights reserved.
+ *
+ * You may not modify, use, reproduce, or distribute this software except in
+ * compliance with  the terms of the License at:
+ * http://java.net/projects/javaeetutorial/pages/BerkeleyLicense
+ */
+package com.forest.events;
+
+import java.io.Serializable;
+import java.util.ArrayList;
+import java.util.List;
+import javax.xml.bind.annotation.XmlAccessType;
+import javax.xml.bind.annotation.XmlAccessorType;
+import javax.xml.bind.annotation.XmlRootElement;
+
+/**
+ * POJO OrderStatusUpdate, moves several orders from one status to another.
+ * Orders that no longer have fromStatus are left unchanged.
+ * @author markito
+ */
+@XmlRootElement
+@XmlAccessorType(XmlAccessType.FIELD)
+public class OrderStatusUpdate implements Serializable {
+
+    private static final long serialVersionUID = 3619522340154232361L;
+
+    private List<Integer> orderIds = new ArrayList<>();
+    private int fromStatus;
+    private int toStatus;
+
+    public List<Integer> getOrderIds() {
+        return orderIds;
+    }
+
+    public void setOrderIds(List<Integer> orderIds) {
+        this.orderIds = orderIds;
+    }
+
+    public int getFromStatus() {
+        return fromStatus;
+    }
+
+    public void setFromStatus(int fromStatus) {
+        this.fromStatus = fromStatus;
+    }
+
+    public int getToStatus() {
+        return toStatus;
+    }
+
+    public void setToStatus(int toStatus) {
+        this.toStatus = toStatus;
+    }
+
+    @Override
+    public String toString() {
+        return "[OrderStatusUpdate] " + fromStatus + " -> " + toStatus + " " + orderIds;
+    }
+}
@@ -0,0 +1,86 @@
+/**
+ * Copyright (c) 2014 Oracle and/or its affiliates. All rights reserved.
+ *
+ * You may not modify, use, reproduce, or distribute this software except in
+ * compliance with  the terms of the License at:
+ * http://java.net/projects/javaeetutorial/pages/BerkeleyLicense
+ */
+package com.forest.events;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.util.Date;
+
+/**
+ * Binary format of the order messages sent by the Store to Shipment.
+ *
+ * A message starts with a version byte followed by the fields of
+ * OrderSummary: order id, status id and customer id (int), creation date
+ * (long, -1 if unknown), amount (double), first name and last name
+ * (boolean present, then UTF). A new version may only append fields. A
+ * reader accepts every version from 1 up: it reads the fields the message's
+ * version has, leaves the ones added later at their defaults, and ignores
+ * what follows the fields it knows. Only versions below 1 are rejected.
+ *
+ * A summary takes 35 bytes plus the names, where a serialized
+ * CustomerOrder carries the customer, its addresses and the order details.
+ *
+ * @author markito
+ */
+public final class OrderSummaryCodec {
+
+    public static final byte VERSION = 1;
+
+    private OrderSummaryCodec() {
+    }
+
+    public static byte[] encode(OrderSummary order) throws IOException {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream(64);
+        try (DataOutputStream out = new DataOutputStream(bytes)) {
+            out.writeByte(VERSION);
+            out.writeInt(order.getOrderID());
+            out.writeInt(order.getStatusID());
+            out.writeInt(order.getCustomerID());
+            out.writeLong(order.getDateCreated() == null ? -1 : order.getDateCreated().getTime());
+            out.writeDouble(order.getAmount());
+            writeString(out, order.getFirstname());
+            writeString(out, order.getLastname());
+        }
+        return bytes.toByteArray();
+    }
+
+    public static OrderSummary decode(byte[] data) throws IOException {
+        try (DataInputStream in = new DataInputStream(new ByteArrayInputStream(data))) {
+            byte version = in.readByte();
+            if (version < 1) {
+                throw new IOException("Unsupported order message version " + version);
+            }
+            OrderSummary order = new OrderSummary();
+            order.setOrderID(in.readInt());
+            order.setStatusID(in.readInt());
+            order.setCustomerID(in.readInt());
+            long date = in.readLong();
+            order.setDateCreated(date < 0 ? null : new Date(date));
+            order.setAmount(in.readDouble());
+            order.setFirstname(readString(in));
+            order.setLastname(readString(in));
+            // fields added by later versions are read here, when
+            // version >= their version, and keep their defaults otherwise
+            return order;
+        }
+    }
+
+    private static void writeString(DataOutputStream out, String value) throws IOException {
+        out.writeBoolean(value != null);
+        if (value != null) {
+            out.writeUTF(value);
+        }
+    }
+
+    private static String readString(DataInputStream in) throws IOException {
+        return in.readBoolean() ? in.readUTF() : null;
+    }
+}
@@ -41,6 +41,8 @@ public class ConfigBean {
     private AdminBean adminBean;
     @EJB
     private RequestBean requestBean;
+    @EJB
+    private TodaysSession todaysSession;
     private static final Logger logger = Logger.getLogger("dukestutoring.ejb.ConfigBean");
 
     /**
@@ -50,7 +52,7 @@ public class ConfigBean {
     public void createTutoringSession() {
         logger.info("Creating today's session in ConfigBean");
         // Create a new tutoring session
-        requestBean.getTodaysSession();
+        todaysSession.rollOver();
     }
     
     @Schedule(dayOfWeek = "Sun-Thu", hour="20")
@@ -61,7 +63,7 @@ public class ConfigBean {
 
     @PostConstruct
     public void init() {
-        requestBean.getTodaysSession();
+        todaysSession.rollOver();
 
         cb = em.getCriteriaBuilder();
         // create Maeby
@@ -27,18 +27,17 @@ import javaeetutorial.dukestutoring.entity.Student_;
 import javaeetutorial.dukestutoring.entity.TutoringSession;
 import javaeetutorial.dukestutoring.entity.TutoringSession_;
 import javaeetutorial.dukestutoring.events.StatusEvent;
-import javaeetutorial.dukestutoring.util.CalendarUtil;
 import javaeetutorial.dukestutoring.util.StatusType;
 import javax.annotation.PostConstruct;
 import javax.annotation.Resource;
 import javax.annotation.security.RolesAllowed;
+import javax.ejb.EJB;
 import javax.ejb.SessionContext;
 import javax.ejb.Stateless;
 import javax.enterprise.event.Event;
 import javax.inject.Inject;
 import javax.inject.Named;
 import javax.persistence.EntityManager;
-import javax.persistence.NoResultException;
 import javax.persistence.PersistenceContext;
 import javax.persistence.TypedQuery;
 import javax.persistence.criteria.CriteriaBuilder;
@@ -63,7 +62,10 @@ public class RequestBean {
     private EntityManager em;
     private static final Logger logger = Logger.getLogger("dukestutoring.ejb.RequestBean");
     private CriteriaBuilder cb;
-    private TutoringSession todaysSession;
+    @EJB
+    private TodaysSession todaysSession;
+    @EJB
+    private StatusEntryWriter statusEntryWriter;
     @Resource
     SessionContext ctx;
     @Inject
@@ -98,23 +100,7 @@ public class RequestBean {
             }
             // set the status
             logger.log(Level.INFO, "Setting {0}''s status to IN", student.getFirstName());
-            student.setStatus(StatusType.IN);
-            statusEvent.fire(new StatusEvent(student));
-            // create a new status entry
-            logger.info("Creating a new status entry");
-            StatusEntry entry = new StatusEntry(StatusType.IN, student, tutoringSession);
-            // add the status entry to the tutoring session
-            logger.info("Adding status entry to tutoring session");
-            tutoringSession.getStatusEntries().add(entry);
-            // persist the status entry
-            logger.info("Persisting status entry");
-            em.persist(entry);
-            // modify the student
-            logger.log(Level.INFO, "Merging status change to {0}", student.getFirstName());
-            em.merge(student);
-            // modify the tutoring session
-            logger.info("Merging the status entry to tutoring session");
-            em.merge(tutoringSession);
+            this.changeStatus(student, StatusType.IN, tutoringSession);
 
             result = "checkinSucceeded";
         }
@@ -125,24 +111,9 @@ public class RequestBean {
     public String checkOut(Student student) {
         String result;
 
-        // get today's session from the convenience method
-        TutoringSession tutoringSession = this.getTodaysSession();
         logger.log(Level.INFO, "Setting {0}''s status to OUT", student.getFirstName());
-        student.setStatus(StatusType.OUT);
-        statusEvent.fire(new StatusEvent(student));
+        this.changeStatus(student, StatusType.OUT, null);
         logger.log(Level.INFO, "Student {0} is {1}", new Object[]{student.getFirstName(), student.getStatus()});
-        StatusEntry entry = new StatusEntry(StatusType.OUT, student, tutoringSession);
-        // add the status entry to the tutoring session
-        tutoringSession.getStatusEntries().add(entry);
-        // persist the status entry
-        logger.info("Persisting status entry");
-        em.persist(entry);
-        // modify the student
-        logger.log(Level.INFO, "Merging status change to {0}", student.getFirstName());
-        em.merge(student);
-        // modify the tutoring session
-        logger.info("Merging the status entry to tutoring session");
-        em.merge(tutoringSession);
 
         result = "checkoutSucceeded";
         return result;
@@ -158,23 +129,8 @@ public class RequestBean {
     public String atPark(Student student) {
         String result;
 
-        // get today's session from the convenience method
-        TutoringSession tutoringSession = this.getTodaysSession();
         logger.log(Level.INFO, "Setting {0}''s status to PLAYGROUND", student.getFirstName());
-        student.setStatus(StatusType.PARK);
-        statusEvent.fire(new StatusEvent(student));
-        StatusEntry entry = new StatusEntry(StatusType.PARK, student, tutoringSession);
-        // add the status entry to the tutoring session
-        tutoringSession.getStatusEntries().add(entry);
-        // persist the status entry
-        logger.info("Persisting status entry");
-        em.persist(entry);
-        // modify the student
-        logger.log(Level.INFO, "Merging status change to {0}", student.getFirstName());
-        em.merge(student);
-        // modify the tutoring session
-        logger.info("Merging the status entry to tutoring session");
-        em.merge(tutoringSession);
+        this.changeStatus(student, StatusType.PARK, null);
 
         result = "atParkSucceeded";
         return result;
@@ -183,22 +139,7 @@ public class RequestBean {
     public String backFromPark(Student student) {
         String result;
 
-        // get today's session from the convenience method
-        TutoringSession tutoringSession = this.getTodaysSession();
-        student.setStatus(StatusType.IN);
-        statusEvent.fire(new StatusEvent(student));
-        StatusEntry entry = new StatusEntry(StatusType.IN, student, tutoringSession);
-        // add the status entry to the tutoring session
-        tutoringSession.getStatusEntries().add(entry);
-        // persist the status entry
-        logger.info("Persisting status entry");
-        em.persist(entry);
-        // modify the student
-        logger.info("Merging status change to student");
-        em.merge(student);
-        // modify the tutoring session
-        logger.info("Merging the status entry to tutoring session");
-        em.merge(tutoringSession);
+        this.changeStatus(student, StatusType.IN, null);
 
         result = "backFromParkSucceeded";
         return result;
@@ -250,13 +191,13 @@ public class RequestBean {
 
     public void createTutoringSession() {
         try {
-            todaysSession = new TutoringSession();
+            TutoringSession session = new TutoringSession();
 
             // Create a formatter to pretty print the date.
             SimpleDateFormat formatter = new SimpleDateFormat("E, MMM d, yyyy");
-            logger.log(Level.INFO, "Creating new tutoring session for {0}.", formatter.format(todaysSession.getSessionDate().getTime()));
+            logger.log(Level.INFO, "Creating new tutoring session for {0}.", formatter.format(session.getSessionDate().getTime()));
             // Store it in the database
-            em.persist(todaysSession);
+            em.persist(session);
         } catch (Exception e) {
             logger.warning("Couldn't create a new session!");
         }
@@ -264,34 +205,23 @@ public class RequestBean {
 
     // convenience method for getting the current session
     public TutoringSession getTodaysSession() {
+        return em.find(TutoringSession.class, todaysSession.getId());
+    }
 
-        // get today's date and trim the time information
-        Calendar today = Calendar.getInstance();
-        CalendarUtil.stripTime(today);
-        // find today's session
-
-        SimpleDateFormat formatter = new SimpleDateFormat("E, MMM d, yyyy");
-        logger.log(Level.INFO, "Finding tutoring session for {0}", formatter.format(today.getTime()));
-
-        CriteriaQuery<TutoringSession> cq = cb.createQuery(TutoringSession.class);
-        Root<TutoringSession> tutoringSession = cq.from(TutoringSession.class);
-
-        cq.select(tutoringSession);
-        cq.where(cb.equal(tutoringSession.get(TutoringSession_.sessionDate), today));
-        cq.distinct(true);
-
-        TypedQuery<TutoringSession> q = em.createQuery(cq);
-        TutoringSession session;
-        try {
-            session = q.getSingleResult();
-            logger.info("Found session for today.");
-        } catch (NoResultException e) {
-            logger.info("Today's session not found. Creating a new session.");
-            session = new TutoringSession();
-            em.persist(session);
-        }
-
-        return session;
+    /*
+     * Sets the student's status and queues the matching status entry, which
+     * StatusEntryWriter writes once this transaction has committed. The
+     * session is only needed when the student joins it.
+     */
+    private void changeStatus(Student student, StatusType status, TutoringSession tutoringSession) {
+        student.setStatus(status);
+        statusEvent.fire(new StatusEvent(student));
+        logger.log(Level.INFO, "Queueing status entry for {0}", student.getFirstName());
+        statusEntryWriter.add(status, student,
+                tutoringSession == null ? todaysSession.getId() : tutoringSession.getId());
+        // modify the student
+        logger.log(Level.INFO, "Merging status change to {0}", student.getFirstName());
+        em.merge(student);
     }
 
     public List<StatusEntry> getStatusEntriesByDate(Date date) {
@@ -314,7 +244,8 @@ public class RequestBean {
         Root<StatusEntry> statusEntry = cq.from(StatusEntry.class);
 
         cq.select(statusEntry);
-        cq.where(cb.equal(statusEntry.get(StatusEntry_.tutoringSession), this.getTodaysSession()));
+        cq.where(cb.equal(statusEntry.get(StatusEntry_.tutoringSession).get(TutoringSession_.id),
+                todaysSession.getId()));
         cq.distinct(true);
 
         TypedQuery<StatusEntry> q = em.createQuery(cq);
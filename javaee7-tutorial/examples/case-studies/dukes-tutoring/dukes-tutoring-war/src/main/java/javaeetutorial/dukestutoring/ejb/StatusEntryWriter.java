@@ -0,0 +1,226 @@
+/**
+ * Copyright (c) 2014 Oracle and/or its affiliates. All rights reserved.
+ *
+ * You may not modify, use, reproduce, or distribute this software except in
+ * compliance with  the terms of the License at:
+ * http://java.net/projects/javaeetutorial/pages/BerkeleyLicense
+ */
+package javaeetutorial.dukestutoring.ejb;
+
+import java.util.ArrayList;
+import java.util.Calendar;
+import java.util.List;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+import javaeetutorial.dukestutoring.entity.StatusEntry;
+import javaeetutorial.dukestutoring.entity.Student;
+import javaeetutorial.dukestutoring.entity.TutoringSession;
+import javaeetutorial.dukestutoring.util.StatusType;
+import javax.annotation.PostConstruct;
+import javax.annotation.PreDestroy;
+import javax.annotation.Resource;
+import javax.ejb.ConcurrencyManagement;
+import javax.ejb.ConcurrencyManagementType;
+import javax.ejb.EJBException;
+import javax.ejb.SessionContext;
+import javax.ejb.Singleton;
+import javax.ejb.Startup;
+import javax.ejb.Timeout;
+import javax.ejb.TimerConfig;
+import javax.ejb.TimerService;
+import javax.ejb.TransactionAttribute;
+import javax.ejb.TransactionAttributeType;
+import javax.persistence.EntityManager;
+import javax.persistence.PersistenceContext;
+import javax.transaction.Status;
+import javax.transaction.Synchronization;
+import javax.transaction.TransactionSynchronizationRegistry;
+
+/**
+ * Writes status entries in batches.
+ *
+ * A status entry is queued once the transaction that changed the student's
+ * status commits, and the queue is written in a single transaction every
+ * tutoring.status.flush.ms milliseconds (500 by default), so the inserts
+ * go to the database as JDBC batches. A status entry can therefore be
+ * missing from the queries of RequestBean for up to that long. When a batch
+ * is rolled back its entries are queued again and then written one at a
+ * time; an entry that still fails after three attempts is logged and
+ * dropped.
+ *
+ * @author ian
+ */
+@Singleton
+@Startup
+@ConcurrencyManagement(ConcurrencyManagementType.BEAN)
+public class StatusEntryWriter {
+
+    private static final Logger logger = Logger.getLogger("dukestutoring.ejb.StatusEntryWriter");
+    /* Entries persisted between two flushes, as batch-writing.size */
+    private static final int BATCH_SIZE = 100;
+    /* Writes of an entry before it is given up */
+    private static final int MAX_ATTEMPTS = 3;
+    @PersistenceContext
+    private EntityManager em;
+    @Resource
+    private TransactionSynchronizationRegistry registry;
+    @Resource
+    private TimerService timerService;
+    @Resource
+    private SessionContext ctx;
+    private final Queue<Pending> queue = new ConcurrentLinkedQueue<>();
+
+    @PostConstruct
+    private void init() {
+        long latency = Long.getLong("tutoring.status.flush.ms", 500);
+        timerService.createIntervalTimer(latency, latency, new TimerConfig(null, false));
+        logger.log(Level.INFO, "Writing status entries every {0} ms", latency);
+    }
+
+    /**
+     * Queues a status entry, to be written after the current transaction
+     * commits.
+     *
+     * @param status the new status
+     * @param student the student whose status changed
+     * @param sessionId the id of the tutoring session
+     */
+    public void add(StatusType status, Student student, Long sessionId) {
+        Pending entry = new Pending(status, student.getId(), sessionId, Calendar.getInstance());
+        if (registry.getTransactionKey() == null) {
+            queue.add(entry);
+            return;
+        }
+        @SuppressWarnings("unchecked")
+        List<Pending> pending = (List<Pending>) registry.getResource(StatusEntryWriter.class);
+        if (pending == null) {
+            final List<Pending> entries = new ArrayList<>();
+            registry.putResource(StatusEntryWriter.class, entries);
+            registry.registerInterposedSynchronization(new Synchronization() {
+                @Override
+                public void beforeCompletion() {
+                }
+
+                @Override
+                public void afterCompletion(int status) {
+                    if (status == Status.STATUS_COMMITTED) {
+                        queue.addAll(entries);
+                    }
+                }
+            });
+            pending = entries;
+        }
+        pending.add(entry);
+    }
+
+    @Timeout
+    public void flush() {
+        final List<Pending> batch = new ArrayList<>();
+        List<Pending> retries = new ArrayList<>();
+        for (Pending entry = queue.poll(); entry != null; entry = queue.poll()) {
+            (entry.attempts == 0 ? batch : retries).add(entry);
+        }
+        // entries of a batch that failed are written one by one, so that a
+        // bad entry does not hold back the others
+        StatusEntryWriter self = ctx.getBusinessObject(StatusEntryWriter.class);
+        for (Pending p : retries) {
+            try {
+                self.writeAlone(p.status, p.studentId, p.sessionId, p.date);
+                evict(p);
+            } catch (EJBException e) {
+                failed(p, e);
+            }
+        }
+        if (batch.isEmpty()) {
+            return;
+        }
+        registry.registerInterposedSynchronization(new Synchronization() {
+            @Override
+            public void beforeCompletion() {
+            }
+
+            @Override
+            public void afterCompletion(int status) {
+                for (Pending p : batch) {
+                    if (status == Status.STATUS_COMMITTED) {
+                        evict(p);
+                    } else {
+                        failed(p, null);
+                    }
+                }
+            }
+        });
+        for (int i = 0; i < batch.size(); i++) {
+            persist(batch.get(i));
+            if ((i + 1) % BATCH_SIZE == 0) {
+                em.flush();
+                em.clear();
+            }
+        }
+        logger.log(Level.INFO, "Writing {0} status entries", batch.size());
+    }
+
+    /**
+     * Writes a single status entry in a transaction of its own. Called by
+     * flush() for the entries of a batch that could not be written.
+     *
+     * @param status the new status
+     * @param studentId the id of the student whose status changed
+     * @param sessionId the id of the tutoring session
+     * @param date when the status changed
+     */
+    @TransactionAttribute(TransactionAttributeType.REQUIRES_NEW)
+    public void writeAlone(StatusType status, Long studentId, Long sessionId, Calendar date) {
+        persist(new Pending(status, studentId, sessionId, date));
+    }
+
+    private void persist(Pending p) {
+        StatusEntry entry = new StatusEntry(p.status,
+                em.getReference(Student.class, p.studentId),
+                em.getReference(TutoringSession.class, p.sessionId));
+        entry.setStatusDate(p.date);
+        em.persist(entry);
+    }
+
+    /* Queues an entry again, unless it has failed MAX_ATTEMPTS times */
+    private void failed(Pending p, Exception e) {
+        p.attempts++;
+        if (p.attempts < MAX_ATTEMPTS) {
+            queue.add(p);
+        } else {
+            logger.log(Level.WARNING, "Dropping {0} status entry of student {1} after {2} attempts: {3}",
+                    new Object[]{p.status, p.studentId, p.attempts, e});
+        }
+    }
+
+    /* The session and student cached with their status entries are stale */
+    private void evict(Pending p) {
+        em.getEntityManagerFactory().getCache().evict(TutoringSession.class, p.sessionId);
+        em.getEntityManagerFactory().getCache().evict(Student.class, p.studentId);
+    }
+
+    @PreDestroy
+    @TransactionAttribute(TransactionAttributeType.REQUIRES_NEW)
+    private void destroy() {
+        flush();
+    }
+
+    /* A status entry waiting to be written */
+    private static final class Pending {
+
+        private final StatusType status;
+        private final Long studentId;
+        private final Long sessionId;
+        private final Calendar date;
+        private int attempts;
+
+        Pending(StatusType status, Long studentId, Long sessionId, Calendar date) {
+            this.status = status;
+            this.studentId = studentId;
+            this.sessionId = sessionId;
+            this.date = date;
+        }
+    }
+}
@@ -0,0 +1,113 @@
+/**
+ * Copyright (c) 2014 Oracle and/or its affiliates. All rights reserved.
+ *
+ * You may not modify, use, reproduce, or distribute this software except in
+ * compliance with  the terms of the License at:
+ * http://java.net/projects/javaeetutorial/pages/BerkeleyLicense
+ */
+package javaeetutorial.dukestutoring.ejb;
+
+import java.util.Calendar;
+import java.util.List;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+import javaeetutorial.dukestutoring.entity.TutoringSession;
+import javaeetutorial.dukestutoring.util.CalendarUtil;
+import javax.annotation.Resource;
+import javax.ejb.ConcurrencyManagement;
+import javax.ejb.ConcurrencyManagementType;
+import javax.ejb.SessionContext;
+import javax.ejb.Singleton;
+import javax.ejb.TransactionAttribute;
+import javax.ejb.TransactionAttributeType;
+import javax.persistence.EntityManager;
+import javax.persistence.PersistenceContext;
+
+/**
+ * The id of today's tutoring session, so that a status change does not have
+ * to query for the session.
+ *
+ * The session is looked up, or created, the first time it is asked for on a
+ * new day. ConfigBean calls rollOver() when it starts and at midnight.
+ *
+ * @author ian
+ */
+@Singleton
+@ConcurrencyManagement(ConcurrencyManagementType.BEAN)
+public class TodaysSession {
+
+    private static final Logger logger = Logger.getLogger("dukestutoring.ejb.TodaysSession");
+    @PersistenceContext
+    private EntityManager em;
+    @Resource
+    private SessionContext ctx;
+    private volatile Entry today;
+
+    /**
+     * @return the id of the tutoring session for today's date
+     */
+    public Long getId() {
+        Calendar day = Calendar.getInstance();
+        CalendarUtil.stripTime(day);
+        Entry e = today;
+        if (e == null || e.day != day.getTimeInMillis()) {
+            synchronized (this) {
+                e = today;
+                if (e == null || e.day != day.getTimeInMillis()) {
+                    // published only once resolve's transaction committed
+                    e = ctx.getBusinessObject(TodaysSession.class).resolve(day);
+                    today = e;
+                }
+            }
+        }
+        return e.id;
+    }
+
+    /**
+     * Forgets the cached session and looks up the one for today.
+     */
+    public void rollOver() {
+        today = null;
+        getId();
+    }
+
+    /**
+     * Finds or creates the session of a day, in a transaction of its own.
+     * Called by getId() through the container so that the session is
+     * committed before its id is handed out.
+     *
+     * @param day the date, without time
+     * @return the date and the id of its session
+     */
+    @TransactionAttribute(TransactionAttributeType.REQUIRES_NEW)
+    public Entry resolve(Calendar day) {
+        List<TutoringSession> sessions = em.createNamedQuery("TutoringSession.findByDate",
+                TutoringSession.class)
+                .setParameter("date", day)
+                .getResultList();
+        TutoringSession session;
+        if (sessions.isEmpty()) {
+            logger.info("Today's session not found. Creating a new session.");
+            session = new TutoringSession();
+            session.setSessionDate(day);
+            em.persist(session);
+            em.flush();
+        } else {
+            session = sessions.get(0);
+        }
+        logger.log(Level.INFO, "Today''s session is {0}", session.getId());
+        return new Entry(day.getTimeInMillis(), session.getId());
+    }
+
+    /* A date, as milliseconds at midnight, and the id of its session */
+    public static final class Entry {
+
+        private final long day;
+        private final Long id;
+
+        Entry(long day, Long id) {
+            this.day = day;
+            this.id = id;
+        }
+    }
+}
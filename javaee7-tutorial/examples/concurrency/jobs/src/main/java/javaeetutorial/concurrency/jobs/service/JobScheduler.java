@@ -0,0 +1,245 @@
+/**
+ * Copyright (c) 2014 Oracle and/or its affiliates. All rights reserved.
+ *
+ * You may not modify, use, reproduce, or distribute this software except in
+ * compliance with  the terms of the License at:
+ * http://java.net/projects/javaeetutorial/pages/BerkeleyLicense
+ */
+package javaeetutorial.concurrency.jobs.service;
+
+import java.util.ArrayDeque;
+import java.util.Deque;
+import java.util.Iterator;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+import javaeetutorial.concurrency.jobs.service.JobStatus.Priority;
+import javaeetutorial.concurrency.jobs.service.JobStatus.State;
+import javax.annotation.Resource;
+import javax.ejb.ConcurrencyManagement;
+import javax.ejb.ConcurrencyManagementType;
+import javax.ejb.Schedule;
+import javax.ejb.Singleton;
+import javax.enterprise.concurrent.ManagedExecutorService;
+
+/**
+ * Queues jobs by priority and feeds them to the managed executors.
+ *
+ * <p>Jobs wait in one bounded queue per priority and at most
+ * {@link #MAX_RUNNING} run at a time. Free slots are handed out by weighted
+ * round robin, {@link #HIGH_WEIGHT} high priority jobs for each low priority
+ * one, so low priority work keeps moving while high priority jobs are
+ * waiting. A job is refused when its queue is full or when its token
+ * already has {@link #TOKEN_QUOTA} jobs queued or running, and also when the
+ * executor refuses to start it right away.</p>
+ *
+ * @author markito
+ */
+@ConcurrencyManagement(ConcurrencyManagementType.BEAN)
+@Singleton
+public class JobScheduler {
+
+    private final static Logger logger = Logger.getLogger(JobScheduler.class.getCanonicalName());
+
+    public static final int MAX_RUNNING = 8;
+    public static final int HIGH_WEIGHT = 3;
+    public static final int HIGH_QUEUE_CAPACITY = 20000;
+    public static final int LOW_QUEUE_CAPACITY = 20000;
+    public static final int TOKEN_QUOTA = 1000;
+    // how long finished jobs can still be queried
+    public static final long STATUS_RETENTION_MILLIS = TimeUnit.MINUTES.toMillis(10);
+    private static final int JOB_EXECUTION_TIME = 10000;
+    private static final int JOB_STEPS = 10;
+
+    @Resource(lookup = "MES_High")
+    private ManagedExecutorService highPrioExecutor;
+    @Resource(lookup = "MES_Low")
+    private ManagedExecutorService lowPrioExecutor;
+
+    // guarded by lock
+    private final Deque<JobStatus> highQueue = new ArrayDeque<>();
+    private final Deque<JobStatus> lowQueue = new ArrayDeque<>();
+    private int running;
+    private int highServed;
+    private final Object lock = new Object();
+
+    private final Map<Integer, JobStatus> jobs = new ConcurrentHashMap<>();
+    private final ConcurrentMap<String, AtomicInteger> tokenUsage = new ConcurrentHashMap<>();
+
+    /**
+     * Queues a job.
+     *
+     * @param jobID the client job id
+     * @param token a valid API token for high priority, null for low priority
+     * @return the job status
+     * @throws RejectedExecutionException when the queue or the token quota
+     * is full, or when the executor refuses the job
+     */
+    public JobStatus submit(int jobID, String token) {
+        final Priority priority = token == null ? Priority.LOW : Priority.HIGH;
+        final JobStatus job = new JobStatus(jobID, priority, token);
+        if (token != null) {
+            AtomicInteger usage = tokenUsage.get(token);
+            if (usage == null) {
+                final AtomicInteger created = new AtomicInteger();
+                usage = tokenUsage.putIfAbsent(token, created);
+                if (usage == null) {
+                    usage = created;
+                }
+            }
+            if (usage.incrementAndGet() > TOKEN_QUOTA) {
+                usage.decrementAndGet();
+                throw new RejectedExecutionException("Token quota of " + TOKEN_QUOTA + " jobs exceeded.");
+            }
+        }
+        synchronized (lock) {
+            final Deque<JobStatus> queue = priority == Priority.HIGH ? highQueue : lowQueue;
+            final int capacity = priority == Priority.HIGH ? HIGH_QUEUE_CAPACITY : LOW_QUEUE_CAPACITY;
+            if (queue.size() >= capacity) {
+                release(job);
+                throw new RejectedExecutionException(priority + " priority queue is full.");
+            }
+            queue.add(job);
+        }
+        jobs.put(jobID, job);
+        if (!dispatch(job)) {
+            // refused by the executor: refuse the submission like a full queue
+            jobs.remove(jobID, job);
+            release(job);
+            throw new RejectedExecutionException("Executor is saturated.");
+        }
+        return job;
+    }
+
+    /**
+     * @param jobID the client job id
+     * @return the status of the latest job with this id, null if unknown
+     */
+    public JobStatus getStatus(int jobID) {
+        return jobs.get(jobID);
+    }
+
+    /**
+     * @param priority a job priority
+     * @return the number of jobs waiting with this priority
+     */
+    public int getQueueDepth(Priority priority) {
+        synchronized (lock) {
+            return priority == Priority.HIGH ? highQueue.size() : lowQueue.size();
+        }
+    }
+
+    @Schedule(minute = "*", hour = "*", persistent = false)
+    public void purgeFinished() {
+        // jobs put back after the executor refused them
+        dispatch(null);
+        final long oldest = System.currentTimeMillis() - STATUS_RETENTION_MILLIS;
+        for (Iterator<JobStatus> it = jobs.values().iterator(); it.hasNext();) {
+            final JobStatus job = it.next();
+            if (job.getFinished() != 0 && job.getFinished() < oldest) {
+                it.remove();
+            }
+        }
+    }
+
+    /**
+     * Starts queued jobs while there are free slots. A job the executor
+     * refuses goes back to the head of its queue, to be started when a
+     * running job finishes, unless it is the job being submitted: that one
+     * is dropped so the submission can be refused.
+     *
+     * @param submitted the job being submitted, null when none
+     * @return false if the executor refused the submitted job
+     */
+    private boolean dispatch(JobStatus submitted) {
+        while (true) {
+            final JobStatus job;
+            synchronized (lock) {
+                if (running >= MAX_RUNNING) {
+                    return true;
+                }
+                job = next();
+                if (job == null) {
+                    return true;
+                }
+                running++;
+            }
+            final ManagedExecutorService executor =
+                    job.getPriority() == Priority.HIGH ? highPrioExecutor : lowPrioExecutor;
+            try {
+                executor.submit(new JobTask(job));
+            } catch (RejectedExecutionException ree) {
+                logger.log(Level.WARNING, "Executor refused {0}", job);
+                synchronized (lock) {
+                    running--;
+                    if (job != submitted) {
+                        (job.getPriority() == Priority.HIGH ? highQueue : lowQueue).addFirst(job);
+                    }
+                }
+                return job != submitted;
+            }
+        }
+    }
+
+    /**
+     * Weighted round robin between the two queues. Caller holds the lock.
+     */
+    private JobStatus next() {
+        if (!highQueue.isEmpty() && (highServed < HIGH_WEIGHT || lowQueue.isEmpty())) {
+            highServed++;
+            return highQueue.poll();
+        }
+        highServed = 0;
+        return lowQueue.poll();
+    }
+
+    private void finished(JobStatus job) {
+        release(job);
+        synchronized (lock) {
+            running--;
+        }
+        dispatch(null);
+    }
+
+    private void release(JobStatus job) {
+        if (job.getToken() != null) {
+            final AtomicInteger usage = tokenUsage.get(job.getToken());
+            if (usage != null && usage.decrementAndGet() <= 0) {
+                tokenUsage.remove(job.getToken(), usage);
+            }
+        }
+    }
+
+    class JobTask implements Runnable {
+
+        private final JobStatus job;
+
+        public JobTask(JobStatus job) {
+            this.job = job;
+        }
+
+        @Override
+        public void run() {
+            try {
+                job.setState(State.RUNNING);
+                logger.log(Level.INFO, "Task started {0}", job);
+                for (int step = 1; step <= JOB_STEPS; step++) {
+                    Thread.sleep(JOB_EXECUTION_TIME / JOB_STEPS);
+                    job.setProgress(step * 100 / JOB_STEPS);
+                }
+                job.setState(State.COMPLETED);
+                logger.log(Level.INFO, "Task finished {0}", job);
+            } catch (InterruptedException ex) {
+                job.setState(State.FAILED);
+                logger.log(Level.SEVERE, null, ex);
+            } finally {
+                finished(job);
+            }
+        }
+    }
+}
@@ -11,10 +11,9 @@ import java.util.UUID;
 import java.util.concurrent.RejectedExecutionException;
 import java.util.logging.Level;
 import java.util.logging.Logger;
-import javax.annotation.Resource;
+import javaeetutorial.concurrency.jobs.service.JobStatus.Priority;
 import javax.ejb.EJB;
 import javax.ejb.Stateless;
-import javax.enterprise.concurrent.ManagedExecutorService;
 import javax.ws.rs.GET;
 import javax.ws.rs.HeaderParam;
 import javax.ws.rs.POST;
@@ -32,13 +31,13 @@ public class JobService {
     private final static Logger logger = Logger.getLogger(JobService.class.getCanonicalName());
     // http header to check for valid tokens
     private final static String API_TOKEN_HEADER = "X-REST-API-Key";
-    @Resource(lookup = "MES_High")
-    private ManagedExecutorService highPrioExecutor;
-    @Resource(lookup = "MES_Low")
-    private ManagedExecutorService lowPrioExecutor;
+    // seconds a rejected client should wait before retrying
+    private final static int RETRY_AFTER_SECONDS = 10;
 
     @EJB
     private TokenStore tokenStore;
+    @EJB
+    private JobScheduler jobScheduler;
 
     @GET
     @Path("/token")
@@ -57,37 +56,36 @@ public class JobService {
         try {
             if (token != null && tokenStore.isValid(token)) {
                 logger.info("Token accepted. Execution with high priority.");
-                highPrioExecutor.submit(new JobTask("HIGH-" + jobID));
+                jobScheduler.submit(jobID, token);
             } else {
                 logger.log(Level.INFO, "Invalid or missing token! {0}", token);
                 // requests without token, will be executed but without priority
-                lowPrioExecutor.submit(new JobTask("LOW-" + jobID));
+                jobScheduler.submit(jobID, null);
             }
         } catch (RejectedExecutionException ree) {
-            return Response.status(Response.Status.SERVICE_UNAVAILABLE).entity("Job " + jobID + " NOT submitted. " + ree.getMessage()).build();
+            return Response.status(Response.Status.SERVICE_UNAVAILABLE)
+                    .header("Retry-After", RETRY_AFTER_SECONDS)
+                    .entity("Job " + jobID + " NOT submitted. " + ree.getMessage()).build();
         }
 
         return Response.status(Response.Status.OK).entity("Job " + jobID + " successfully submitted.").build();
     }
 
-    static class JobTask implements Runnable {
-
-        private final String jobID;
-        private final int JOB_EXECUTION_TIME= 10000;
-
-        public JobTask(String id) {
-            this.jobID = id;
+    @GET
+    @Path("/status")
+    public Response status(final @QueryParam("jobID") int jobID) {
+        final JobStatus job = jobScheduler.getStatus(jobID);
+        if (job == null) {
+            return Response.status(Response.Status.NOT_FOUND).entity("Job " + jobID + " not found.").build();
         }
+        return Response.status(Response.Status.OK).entity(job.toString()).build();
+    }
 
-        @Override
-        public void run() {
-            try {
-                logger.log(Level.INFO, "Task started {0}", jobID);
-                Thread.sleep(JOB_EXECUTION_TIME); // 5 seconds per job
-                logger.log(Level.INFO, "Task finished {0}", jobID);
-            } catch (InterruptedException ex) {
-                logger.log(Level.SEVERE, null, ex);
-            }
-        }
+    @GET
+    @Path("/queue")
+    public Response queue() {
+        return Response.status(Response.Status.OK).entity(String.format("HIGH %d LOW %d",
+                jobScheduler.getQueueDepth(Priority.HIGH),
+                jobScheduler.getQueueDepth(Priority.LOW))).build();
     }
 }
@@ -0,0 +1,93 @@
+/**
+ * Copyright (c) 2014 Oracle and/or its affiliates. All rights reserved.
+ *
+ * You may not modify, use, reproduce, or distribute this software except in
+ * compliance with  the terms of the License at:
+ * http://java.net/projects/javaeetutorial/pages/BerkeleyLicense
+ */
+package javaeetutorial.concurrency.jobs.service;
+
+/**
+ * State and progress of a job accepted by the {@link JobScheduler}.
+ *
+ * @author markito
+ */
+public class JobStatus {
+
+    public enum State {
+        QUEUED, RUNNING, COMPLETED, FAILED
+    }
+
+    public enum Priority {
+        HIGH, LOW
+    }
+
+    private final int jobID;
+    private final Priority priority;
+    private final String token;
+    private final long submitted;
+    private volatile State state = State.QUEUED;
+    private volatile int progress;
+    private volatile long finished;
+
+    public JobStatus(int jobID, Priority priority, String token) {
+        this.jobID = jobID;
+        this.priority = priority;
+        this.token = token;
+        this.submitted = System.currentTimeMillis();
+    }
+
+    public int getJobID() {
+        return jobID;
+    }
+
+    public Priority getPriority() {
+        return priority;
+    }
+
+    /**
+     * @return the API token the job was submitted with, null for low
+     * priority jobs
+     */
+    public String getToken() {
+        return token;
+    }
+
+    public long getSubmitted() {
+        return submitted;
+    }
+
+    public State getState() {
+        return state;
+    }
+
+    public void setState(State state) {
+        this.state = state;
+        if (state == State.COMPLETED || state == State.FAILED) {
+            this.finished = System.currentTimeMillis();
+        }
+    }
+
+    /**
+     * @return the percentage of the job done
+     */
+    public int getProgress() {
+        return progress;
+    }
+
+    public void setProgress(int progress) {
+        this.progress = progress;
+    }
+
+    /**
+     * @return when the job completed or failed, 0 while it is not done
+     */
+    public long getFinished() {
+        return finished;
+    }
+
+    @Override
+    public String toString() {
+        return String.format("Job %d %s %s %d%%", jobID, priority, state, progress);
+    }
+}
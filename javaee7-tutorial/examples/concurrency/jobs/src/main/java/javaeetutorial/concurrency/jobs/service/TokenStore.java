@@ -8,34 +8,59 @@
 package javaeetutorial.concurrency.jobs.service;
 
 import java.io.Serializable;
-import java.util.ArrayList;
-import java.util.List;
+import java.util.Iterator;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
 import javax.ejb.ConcurrencyManagement;
 import javax.ejb.ConcurrencyManagementType;
-import javax.ejb.Lock;
-import javax.ejb.LockType;
+import javax.ejb.Schedule;
 import javax.ejb.Singleton;
 
 /**
+ * Issued API tokens and their expiration time. Lookups do not take any
+ * container lock; expired tokens are rejected on lookup and purged every
+ * minute.
+ *
  * @author markito
  */
-@ConcurrencyManagement(ConcurrencyManagementType.CONTAINER)
+@ConcurrencyManagement(ConcurrencyManagementType.BEAN)
 @Singleton
 public class TokenStore implements Serializable {
 
-    private final List<String> store;
+    private static final long serialVersionUID = 4218710536398427563L;
+    // how long a token stays valid
+    public static final long TOKEN_TTL_MILLIS = TimeUnit.MINUTES.toMillis(30);
+
+    private final Map<String, Long> store;
 
     public TokenStore() {
-        this.store = new ArrayList<>();
+        this.store = new ConcurrentHashMap<>();
     }
 
-    @Lock(LockType.WRITE)
     public void put(String key) {
-        store.add(key);
+        store.put(key, System.currentTimeMillis() + TOKEN_TTL_MILLIS);
     }
 
-    @Lock(LockType.READ)
     public boolean isValid(String key) {
-        return store.contains(key);
+        final Long expires = store.get(key);
+        if (expires == null) {
+            return false;
+        }
+        if (expires < System.currentTimeMillis()) {
+            store.remove(key);
+            return false;
+        }
+        return true;
+    }
+
+    @Schedule(minute = "*", hour = "*", persistent = false)
+    public void purgeExpired() {
+        final long now = System.currentTimeMillis();
+        for (Iterator<Long> it = store.values().iterator(); it.hasNext();) {
+            if (it.next() < now) {
+                it.remove();
+            }
+        }
     }
 }
@@ -8,15 +8,23 @@
 package javaeetutorial.taskcreator;
 
 import java.io.IOException;
+import java.util.Map;
 import java.util.Queue;
+import java.util.concurrent.ConcurrentHashMap;
 import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.logging.Level;
 import java.util.logging.Logger;
 import javax.enterprise.context.Dependent;
 import javax.enterprise.event.Observes;
+import javax.websocket.CloseReason;
 import javax.websocket.OnClose;
 import javax.websocket.OnError;
 import javax.websocket.OnMessage;
 import javax.websocket.OnOpen;
+import javax.websocket.SendHandler;
+import javax.websocket.SendResult;
 import javax.websocket.Session;
 import javax.websocket.server.ServerEndpoint;
 
@@ -26,14 +34,18 @@ import javax.websocket.server.ServerEndpoint;
 public class InfoEndpoint {
 
     private static final Logger log = Logger.getLogger("InfoEndpoint");
-    /* Keep a list of clients */
-    private static final Queue<Session> sessions =
-            new ConcurrentLinkedQueue<>();
+    /* Prefix of the events that carry a new log line */
+    public static final String INFO_PREFIX = "info:";
+    /* Events queued for a client before it is disconnected */
+    private static final int MAX_PENDING = 1000;
+    /* Keep a list of clients, each with its queue of events */
+    private static final Map<Session, Sender> sessions =
+            new ConcurrentHashMap<>();
     
     @OnOpen
     public void onOpen(Session session) {
         log.info("[InfoEndpoint] Connection opened");
-        sessions.add(session);
+        sessions.put(session, new Sender(session));
     }
     
     @OnClose
@@ -48,15 +60,88 @@ public class InfoEndpoint {
     public void onMessage(String msg) { }
     
     /* Observe the event fired from the EJB and notify clients.
-     * The clients use JavaScript to make a JSF AJAX request to refresh
-     * the log textarea. */
+     * Events starting with INFO_PREFIX carry a new log line that the
+     * clients add to the log textarea with JavaScript. For the other
+     * events the clients make a JSF AJAX request to refresh the page.
+     * Each client has a queue of events sent one at a time, so a slow
+     * client does not hold up the tasks. */
     public static void pushAlert(@Observes String event) {
-        for (Session s : sessions) {
-            if (s.isOpen())
+        for (Sender sender : sessions.values()) {
+            sender.send(event);
+        }
+        log.fine("[InfoEndpoint] Event sent");
+    }
+    
+    /* Sends the events of one session through its async remote, the next
+     * one from the completion handler of the previous one */
+    private static class Sender implements SendHandler {
+        private final Session session;
+        private final Queue<String> pending = new ConcurrentLinkedQueue<>();
+        private final AtomicInteger pendingCount = new AtomicInteger();
+        private final AtomicBoolean sending = new AtomicBoolean();
+        
+        private Sender(Session session) {
+            this.session = session;
+        }
+        
+        private void send(String event) {
+            if (pendingCount.incrementAndGet() > MAX_PENDING) {
+                pendingCount.decrementAndGet();
+                close("Too many pending events");
+                return;
+            }
+            pending.offer(event);
+            sendNext();
+        }
+        
+        @Override
+        public void onResult(SendResult result) {
+            if (!result.isOK()) {
+                log.log(Level.WARNING, "[InfoEndpoint] Send failed", result.getException());
+                pending.clear();
+                pendingCount.set(0);
+                close("Send failed");
+                return;
+            }
+            sending.set(false);
+            sendNext();
+        }
+        
+        /* Send the head of the queue unless a send is in flight */
+        private void sendNext() {
+            while (!pending.isEmpty() && sending.compareAndSet(false, true)) {
+                String event = pending.poll();
+                if (event == null) {
+                    sending.set(false);
+                    continue;
+                }
+                pendingCount.decrementAndGet();
+                if (!session.isOpen()) {
+                    sending.set(false);
+                    pending.clear();
+                    pendingCount.set(0);
+                    return;
+                }
                 try {
-                    s.getBasicRemote().sendText(event);
-                    log.info("[InfoEndpoint] Event sent");
-                } catch (IOException ex) { }
+                    session.getAsyncRemote().sendText(event, this);
+                } catch (IllegalStateException e) {
+                    sending.set(false);
+                    log.log(Level.WARNING, "[InfoEndpoint] Cannot send event", e);
+                }
+                return;
+            }
+        }
+        
+        private void close(String reason) {
+            sessions.remove(session);
+            try {
+                if (session.isOpen()) {
+                    session.close(new CloseReason(
+                            CloseReason.CloseCodes.TRY_AGAIN_LATER, reason));
+                }
+            } catch (IOException e) {
+                log.log(Level.WARNING, "[InfoEndpoint] Cannot close session", e);
+            }
         }
     }
 }
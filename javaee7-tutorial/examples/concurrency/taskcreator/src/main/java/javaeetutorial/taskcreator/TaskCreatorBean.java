@@ -75,7 +75,7 @@ public class TaskCreatorBean implements Serializable {
     public void submitTask() {
         if (taskEJB.getPeriodicTasks().contains(taskName) == false) {
             /* Create a new task object */
-            Task task = new Task(taskName, taskType);
+            Task task = new Task(taskName, taskType, taskEJB);
             /* Use the managed executor objects to run the task */
             taskEJB.submitTask(task, taskType);
             taskType = "IMMEDIATE";
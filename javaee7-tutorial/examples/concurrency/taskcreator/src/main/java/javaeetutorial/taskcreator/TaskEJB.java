@@ -7,9 +7,9 @@
  */
 package javaeetutorial.taskcreator;
 
-import java.util.HashMap;
 import java.util.Map;
 import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
 import java.util.concurrent.ScheduledFuture;
 import java.util.concurrent.TimeUnit;
 import java.util.logging.Level;
@@ -17,6 +17,8 @@ import java.util.logging.Logger;
 import javax.annotation.PostConstruct;
 import javax.annotation.PreDestroy;
 import javax.annotation.Resource;
+import javax.ejb.ConcurrencyManagement;
+import javax.ejb.ConcurrencyManagementType;
 import javax.ejb.LocalBean;
 import javax.ejb.Singleton;
 import javax.ejb.Startup;
@@ -31,6 +33,7 @@ import javax.ws.rs.Path;
 @Startup
 @Singleton
 @LocalBean
+@ConcurrencyManagement(ConcurrencyManagementType.BEAN)
 @Path("/taskinfo")
 public class TaskEJB {
     
@@ -46,15 +49,15 @@ public class TaskEJB {
     /* Keep track of periodic tasks so we can kill them later */
     private Map<String, ScheduledFuture<?>> periodicTasks;
     /* Keep the log (textarea content) for all clients in this EJB */
-    private String infoField;
+    private TaskLog infoField;
     /* Fire CDI events for the WebSocket endpoint */
     @Inject
     private Event<String> events;
 
     @PostConstruct
     public void init() {
-        periodicTasks = new HashMap<>();
-        infoField = "";
+        periodicTasks = new ConcurrentHashMap<>();
+        infoField = new TaskLog();
     }
     
     @PreDestroy
@@ -88,10 +91,10 @@ public class TaskEJB {
     
     public void cancelPeriodicTask(String name) {
         /* Cancel a periodic task */
-        if (periodicTasks.containsKey(name)) {
+        ScheduledFuture<?> fut = periodicTasks.remove(name);
+        if (fut != null) {
             log.log(Level.INFO, "[TaskEJB] Cancelling task {0}", name);
-            periodicTasks.get(name).cancel(true);
-            periodicTasks.remove(name);
+            fut.cancel(true);
             /* Notify the WebSocket endpoint to update the client's task list */
             events.fire("tasklist");
         }
@@ -99,22 +102,23 @@ public class TaskEJB {
     
     @POST
     @Consumes("text/html")
-    /* The tasks post updates to this JAX-RS endpoint */
+    /* External clients can still post updates to this JAX-RS endpoint.
+     * The tasks call it directly, without going through HTTP. */
     public void addToInfoField(String msg) {
         /* Update the log */
-        infoField = msg + "\n" + infoField;
+        infoField.add(msg);
         log.log(Level.INFO, "[TaskEJB] Added message {0}", msg);
-        /* Notify the WebSocket endpoint to update the client's task log */
-        events.fire("infobox");
+        /* Send the new line to the WebSocket endpoint */
+        events.fire(InfoEndpoint.INFO_PREFIX + msg);
     }
     
     /* Provide the execution log for the client's pages */
     public String getInfoField() {
-        return infoField;
+        return infoField.getText();
     }
     
     public void clearInfoField() {
-        infoField = "";
+        infoField.clear();
     }
     
     /* Provide the list of running tasks */
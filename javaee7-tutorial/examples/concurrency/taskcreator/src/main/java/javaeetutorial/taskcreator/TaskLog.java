@@ -0,0 +1,56 @@
+/**
+ * Copyright (c) 2014 Oracle and/or its affiliates. All rights reserved.
+ *
+ * You may not modify, use, reproduce, or distribute this software except in
+ * compliance with  the terms of the License at:
+ * http://java.net/projects/javaeetutorial/pages/BerkeleyLicense
+ */
+package javaeetutorial.taskcreator;
+
+/* Bounded execution log kept as a ring buffer of lines.
+ * Adding a line is constant time; once the buffer is full the oldest
+ * line is overwritten instead of copying the whole log. */
+public class TaskLog {
+    
+    public static final int DEFAULT_CAPACITY = 200;
+    
+    private final String[] lines;
+    private int next;
+    private int size;
+    
+    public TaskLog() {
+        this(DEFAULT_CAPACITY);
+    }
+    
+    public TaskLog(int capacity) {
+        lines = new String[capacity];
+    }
+    
+    public synchronized void add(String line) {
+        lines[next] = line;
+        next = (next + 1) % lines.length;
+        if (size < lines.length)
+            size++;
+    }
+    
+    public synchronized void clear() {
+        for (int i = 0; i < lines.length; i++)
+            lines[i] = null;
+        next = 0;
+        size = 0;
+    }
+    
+    /* The log as text, newest line first */
+    public synchronized String getText() {
+        StringBuilder sb = new StringBuilder(size * 48);
+        for (int i = 1; i <= size; i++) {
+            int index = (next - i + lines.length) % lines.length;
+            sb.append(lines[index]).append('\n');
+        }
+        return sb.toString();
+    }
+    
+    public int getCapacity() {
+        return lines.length;
+    }
+}
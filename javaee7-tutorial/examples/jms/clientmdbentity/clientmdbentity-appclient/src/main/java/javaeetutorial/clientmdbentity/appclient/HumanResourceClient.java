@@ -92,6 +92,10 @@ public class HumanResourceClient {
             for (int i = 0; i < 5; i++) {
                 int currentHireID = nextHireID++;
                 message.setString("HireID", String.valueOf(currentHireID));
+                /* Also expose the hire ID as the message group, so that
+                 * consumers can keep the messages of one hire in order */
+                message.setStringProperty("HireID", String.valueOf(currentHireID));
+                message.setStringProperty("JMSXGroupID", String.valueOf(currentHireID));
                 message.setString("Name", names[order[i]]);
                 message.setString("Position",
                         positions[rand.nextInt(positions.length)]);
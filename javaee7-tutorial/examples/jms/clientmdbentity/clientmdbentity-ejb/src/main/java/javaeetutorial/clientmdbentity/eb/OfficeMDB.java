@@ -12,6 +12,7 @@ import java.util.logging.Level;
 import java.util.logging.Logger;
 import javax.annotation.Resource;
 import javax.ejb.ActivationConfigProperty;
+import javax.ejb.EJB;
 import javax.ejb.MessageDriven;
 import javax.ejb.MessageDrivenContext;
 import javax.inject.Inject;
@@ -21,8 +22,6 @@ import javax.jms.JMSException;
 import javax.jms.MapMessage;
 import javax.jms.Message;
 import javax.jms.MessageListener;
-import javax.persistence.EntityManager;
-import javax.persistence.PersistenceContext;
 
 /**
  * The OfficeMDB class is a message-driven bean. It implements the
@@ -48,8 +47,8 @@ public class OfficeMDB implements MessageListener {
     private final Random processingTime = new Random();
     @Resource
     public MessageDrivenContext mdc;
-    @PersistenceContext
-    EntityManager em;
+    @EJB
+    SetupAggregator aggregator;
     @Inject
     private JMSContext context;
 
@@ -65,7 +64,7 @@ public class OfficeMDB implements MessageListener {
      *
      * Casts the incoming Message to a MapMessage, retrieves its contents, and
      * assigns the new hire to an office. Calls the compose method to store the
-     * information in the persistence entity and, if work is complete, to send a
+     * information in the setup aggregate and, if work is complete, to send a
      * reply message to the client.
      *
      * @param inMessage the incoming message
@@ -109,72 +108,30 @@ public class OfficeMDB implements MessageListener {
     /**
      * compose method, helper to onMessage method.
      *
-     * Locates the row of the database represented by the primary key and adds
-     * the office number allocated for the new hire.
+     * Adds the office number allocated for the new hire to the setup kept by
+     * SetupAggregator and, if the setup is now complete, sends the reply.
      *
-     * @param key employee ID, primary key
+     * @param key employee ID
      * @param name employee name
      * @param officeNumber office number
      * @param msg the message received
      */
     void compose(String key, String name, int officeNumber, Message msg) {
-        SetupOffice so = null;
+        SetupOffice so;
         MapMessage replyMsg;
         Destination replyDest;
         String replyCorrelationMsgId;
-        boolean done = false;
 
-        try {
-            so = em.find(SetupOffice.class, key);
-            if (so != null) {
-                logger.log(Level.INFO, "OfficeMDB.compose: "
-                        + "Found join entity for employeeId {0}", key);
-            }
-        } catch (IllegalArgumentException iae) {
-            logger.log(Level.WARNING,
-                    "EquipmentMDB.compose: No join entity found: {0}",
-                    iae.toString());
-        } catch (Exception e) {
-            logger.log(Level.SEVERE,
-                    "EquipmentMDB.compose: em.find failed without"
-                    + " throwing IllegalArgumentException: {0}", e.toString());
-        }
-
-        // No entity found; create it
-        if (so == null) {
-            try {
-                logger.log(Level.INFO, "OfficeMDB.compose: "
-                        + "Creating join entity for employeeId {0}", key);
-                so = new SetupOffice(key, name);
-                em.persist(so);
-            } catch (Exception e) {
-                logger.log(Level.WARNING,
-                        "EquipmentMDB.compose: Could not create join entity: {0}",
-                        e.toString());
-                mdc.setRollbackOnly();
-            }
-        }
+        so = aggregator.addOfficeNumber(key, name, officeNumber);
 
-        // Entity found or created, so add office
-        if (so != null) {
-            try {
-                done = so.doOfficeNumber(officeNumber);
-            } catch (Exception e) {
-                logger.log(Level.SEVERE, "OfficeMDB.compose: "
-                        + "Could not get office for employeeId {0}", key);
-                mdc.setRollbackOnly();
-            }
-        }
-
-        /* Whichever bean receives the information that the setup is
-         * complete sends a message back to the client and removes
-         * the entity. Context uses a transacted session by default.
+        /* Whichever bean completes the setup sends a message back to
+         * the client. Context uses a transacted session by default.
          */
-        if (done) {
+        if (so != null) {
             try {
                 /*
-                 * Send reply to messages aggregated by this
-                 * composite entity.  Call createReplyMsg
+                 * Send reply to messages aggregated by
+                 * SetupAggregator.  Call createReplyMsg
                  * to construct the reply.
                  */
                 replyDest = msg.getJMSReplyTo();
@@ -187,13 +144,9 @@ public class OfficeMDB implements MessageListener {
             } catch (JMSException je) {
                 logger.log(Level.SEVERE, "OfficeMDB.compose: "
                         + "JMSException: {0}", je.toString());
-            }
-
-            if (so != null) {
-                logger.log(Level.INFO, "OfficeMDB.compose: "
-                        + "REMOVING SetupOffice entity employeeId={0}, Name={1}",
-                        new Object[]{so.getEmployeeId(), so.getEmployeeName()});
-                em.remove(so);
+                // SetupAggregator takes the setup back, and the redelivered
+                // message sends the reply again
+                mdc.setRollbackOnly();
             }
         }
     }
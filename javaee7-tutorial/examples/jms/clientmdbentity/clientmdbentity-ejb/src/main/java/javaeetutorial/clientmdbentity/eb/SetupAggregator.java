@@ -0,0 +1,257 @@
+/**
+ * Copyright (c) 2014 Oracle and/or its affiliates. All rights reserved.
+ *
+ * You may not modify, use, reproduce, or distribute this software except in
+ * compliance with  the terms of the License at:
+ * http://java.net/projects/javaeetutorial/pages/BerkeleyLicense
+ */
+package javaeetutorial.clientmdbentity.eb;
+
+import java.util.Iterator;
+import java.util.List;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.TimeUnit;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+import javax.annotation.PostConstruct;
+import javax.annotation.PreDestroy;
+import javax.annotation.Resource;
+import javax.ejb.ConcurrencyManagement;
+import javax.ejb.ConcurrencyManagementType;
+import javax.ejb.Schedule;
+import javax.ejb.Singleton;
+import javax.ejb.Startup;
+import javax.persistence.EntityManager;
+import javax.persistence.PersistenceContext;
+import javax.transaction.Status;
+import javax.transaction.Synchronization;
+import javax.transaction.TransactionSynchronizationRegistry;
+
+/**
+ * The SetupAggregator class joins the equipment and office assignments for a
+ * new hire in memory. EquipmentMDB and OfficeMDB each add their part; the
+ * bean that adds the second part gets the complete SetupOffice back and sends
+ * the reply, so the join no longer needs any database access.
+ *
+ * Setups that do not complete within TIMEOUT_MINUTES are dropped. When the
+ * persistIncomplete environment entry is true (the default), incomplete
+ * setups are stored as SetupOffice entities when they time out or when the
+ * application stops, and are loaded back when it starts or when the missing
+ * part arrives. A stored setup is deleted by the transaction that completes
+ * it, and a stored part is never overwritten by a missing one. Setups still
+ * pending when the server crashes are lost, since their messages have
+ * already been acknowledged.
+ *
+ * The setups are kept outside the message transactions. Adding a part
+ * again only sets the same value again, so a message redelivered after a
+ * rollback does no harm. A setup completed in a transaction that rolls back
+ * is put back, so that the redelivered message completes it again and the
+ * reply is sent.
+ */
+@Singleton
+@Startup
+@ConcurrencyManagement(ConcurrencyManagementType.BEAN)
+public class SetupAggregator {
+
+    static final Logger logger = Logger.getLogger("SetupAggregator");
+    static final long TIMEOUT_MINUTES = 10;
+    @PersistenceContext
+    EntityManager em;
+    @Resource(name = "persistIncomplete")
+    private boolean persistIncomplete = true;
+    @Resource
+    private TransactionSynchronizationRegistry registry;
+    private final ConcurrentMap<String, SetupOffice> pending =
+            new ConcurrentHashMap<>();
+
+    /**
+     * Loads the incomplete setups stored by a previous run, and removes them
+     * from the database.
+     */
+    @PostConstruct
+    public void init() {
+        if (!persistIncomplete) {
+            return;
+        }
+        List<SetupOffice> stored = em.createQuery(
+                "SELECT s FROM SetupOffice s", SetupOffice.class)
+                .getResultList();
+        for (SetupOffice so : stored) {
+            SetupOffice copy = new SetupOffice(so.getEmployeeId(),
+                    so.getEmployeeName());
+            copy.setEquipmentList(so.getEquipmentList());
+            copy.setOfficeNumber(so.getOfficeNumber());
+            pending.put(copy.getEmployeeId(), copy);
+            em.remove(so);
+        }
+        logger.log(Level.INFO, "SetupAggregator.init: Loaded {0} incomplete "
+                + "setups", stored.size());
+    }
+
+    /**
+     * Stores the incomplete setups.
+     */
+    @PreDestroy
+    public void destroy() {
+        if (!persistIncomplete) {
+            return;
+        }
+        for (SetupOffice so : pending.values()) {
+            synchronized (so) {
+                store(so);
+            }
+        }
+        pending.clear();
+    }
+
+    /**
+     * Adds the equipment allocated for a new hire.
+     *
+     * @param key employee ID
+     * @param name employee name
+     * @param equipmentList equipment allocated based on position
+     * @return the complete setup if the office number was already assigned,
+     * otherwise null
+     */
+    public SetupOffice addEquipment(String key, String name,
+            String equipmentList) {
+        while (true) {
+            SetupOffice so = setupFor(key, name);
+            synchronized (so) {
+                if (pending.get(key) != so) {
+                    continue; // expired or completed meanwhile
+                }
+                return so.doEquipmentList(equipmentList) ? complete(so) : null;
+            }
+        }
+    }
+
+    /**
+     * Adds the office number allocated for a new hire.
+     *
+     * @param key employee ID
+     * @param name employee name
+     * @param officeNumber office number
+     * @return the complete setup if the equipment was already assigned,
+     * otherwise null
+     */
+    public SetupOffice addOfficeNumber(String key, String name,
+            int officeNumber) {
+        while (true) {
+            SetupOffice so = setupFor(key, name);
+            synchronized (so) {
+                if (pending.get(key) != so) {
+                    continue; // expired or completed meanwhile
+                }
+                return so.doOfficeNumber(officeNumber) ? complete(so) : null;
+            }
+        }
+    }
+
+    /**
+     * Drops, or stores, the setups that have been incomplete for longer than
+     * TIMEOUT_MINUTES.
+     */
+    @Schedule(minute = "*", hour = "*", persistent = false)
+    public void expire() {
+        long oldest = System.currentTimeMillis()
+                - TimeUnit.MINUTES.toMillis(TIMEOUT_MINUTES);
+        for (Iterator<SetupOffice> it = pending.values().iterator();
+                it.hasNext();) {
+            SetupOffice so = it.next();
+            if (so.getCreated() < oldest) {
+                // an add holding the setup finishes first, or starts over
+                synchronized (so) {
+                    if (!pending.remove(so.getEmployeeId(), so)) {
+                        continue;
+                    }
+                    logger.log(Level.WARNING, "SetupAggregator.expire: "
+                            + "Setup for employeeId {0} timed out",
+                            so.getEmployeeId());
+                    if (persistIncomplete) {
+                        store(so);
+                    }
+                }
+            }
+        }
+    }
+
+    /**
+     * Returns the setup for the key, creating it if needed. Only one setup
+     * is ever created for a key. A new setup takes over the parts of a
+     * stored one; it is locked until then, so no add sees it empty.
+     */
+    private SetupOffice setupFor(String key, String name) {
+        SetupOffice so = pending.get(key);
+        if (so == null) {
+            SetupOffice created = new SetupOffice(key, name);
+            synchronized (created) {
+                so = pending.putIfAbsent(key, created);
+                if (so == null) {
+                    if (persistIncomplete) {
+                        fill(created, em.find(SetupOffice.class, key));
+                    }
+                    logger.log(Level.INFO, "SetupAggregator: "
+                            + "Started setup for employeeId {0}", key);
+                    so = created;
+                }
+            }
+        }
+        return so;
+    }
+
+    /**
+     * Stores an incomplete setup, keeping the parts of an already stored
+     * one. Caller holds the lock on the setup.
+     */
+    private void store(SetupOffice so) {
+        fill(so, em.find(SetupOffice.class, so.getEmployeeId()));
+        em.merge(so);
+    }
+
+    /**
+     * Copies the parts the stored setup has and the setup lacks.
+     */
+    private static void fill(SetupOffice so, SetupOffice stored) {
+        if (stored == null) {
+            return;
+        }
+        if (so.getEquipmentList() == null) {
+            so.setEquipmentList(stored.getEquipmentList());
+        }
+        if (so.getOfficeNumber() == -1) {
+            so.setOfficeNumber(stored.getOfficeNumber());
+        }
+    }
+
+    /**
+     * Removes a complete setup, with its stored row, and puts it back if the
+     * current transaction rolls back. Caller holds the lock on the setup.
+     */
+    private SetupOffice complete(final SetupOffice so) {
+        pending.remove(so.getEmployeeId(), so);
+        if (persistIncomplete) {
+            SetupOffice stored = em.find(SetupOffice.class,
+                    so.getEmployeeId());
+            if (stored != null) {
+                em.remove(stored);
+            }
+        }
+        if (registry.getTransactionKey() != null) {
+            registry.registerInterposedSynchronization(new Synchronization() {
+                @Override
+                public void beforeCompletion() {
+                }
+
+                @Override
+                public void afterCompletion(int status) {
+                    if (status != Status.STATUS_COMMITTED) {
+                        pending.putIfAbsent(so.getEmployeeId(), so);
+                    }
+                }
+            });
+        }
+        return so;
+    }
+}
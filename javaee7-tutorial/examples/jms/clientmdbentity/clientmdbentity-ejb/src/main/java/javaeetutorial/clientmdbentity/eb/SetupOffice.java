@@ -12,6 +12,7 @@ import java.util.logging.Level;
 import java.util.logging.Logger;
 import javax.persistence.Entity;
 import javax.persistence.Id;
+import javax.persistence.Transient;
 
 /**
  * The SetupOffice class implements the business methods of the entity.
@@ -39,6 +40,7 @@ public class SetupOffice implements Serializable {
         this.name = name;
         this.equip = null;
         this.officeNum = -1;
+        this.created = System.currentTimeMillis();
     }
 
     /*
@@ -53,6 +55,7 @@ public class SetupOffice implements Serializable {
     private String name;
     private int officeNum;
     private String equip;
+    private long created;
 
     @Id
     public String getEmployeeId() {
@@ -87,6 +90,21 @@ public class SetupOffice implements Serializable {
         this.equip = equip;
     }
 
+    /**
+     * The time this setup was started, used by SetupAggregator to expire
+     * incomplete setups. Not stored in the database.
+     *
+     * @return creation time in milliseconds
+     */
+    @Transient
+    public long getCreated() {
+        return created;
+    }
+
+    public void setCreated(long created) {
+        this.created = created;
+    }
+
     /**
      * The doEquipmentList method stores the assigned equipment in the database,
      * then determines if setup is complete.
@@ -17,6 +17,7 @@ import javax.ejb.Stateless;
 import javax.inject.Inject;
 import javax.jms.JMSContext;
 import javax.jms.JMSException;
+import javax.jms.JMSProducer;
 import javax.jms.TextMessage;
 import javax.jms.Topic;
 
@@ -65,6 +66,12 @@ public class PublisherBean implements PublisherRemote {
      * property and using the property value as the message text. Messages are
      * received by MessageBean, a message-driven bean that uses a message
      * selector to retrieve messages whose NewsType property has certain values.
+     *
+     * One producer is used for all the messages. The messages are sent in the
+     * container transaction of this method, so they are delivered together
+     * when it commits; asynchronous sends and transacted contexts are not
+     * allowed in the EJB container (see javaeetutorial.producer.BatchProducer
+     * for the application client equivalent).
      */
     @Override
     public void publishNews() {
@@ -73,6 +80,7 @@ public class PublisherBean implements PublisherRemote {
         String messageType;
 
         try {
+            JMSProducer producer = context.createProducer();
             message = context.createTextMessage();
 
             for (int i = 0; i < numMsgs; i++) {
@@ -82,7 +90,7 @@ public class PublisherBean implements PublisherRemote {
                 logger.log(Level.INFO,
                         "PUBLISHER: Setting message text to: {0}",
                         message.getText());
-                context.createProducer().send(topic, message);
+                producer.send(topic, message);
             }
         } catch (JMSException t) {
             logger.log(Level.SEVERE,
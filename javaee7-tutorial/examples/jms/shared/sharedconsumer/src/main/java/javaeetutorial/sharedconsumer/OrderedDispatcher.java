@@ -0,0 +1,132 @@
+/**
+ * Copyright (c) 2014 Oracle and/or its affiliates. All rights reserved.
+ *
+ * You may not modify, use, reproduce, or distribute this software except in
+ * compliance with  the terms of the License at:
+ * http://java.net/projects/javaeetutorial/pages/BerkeleyLicense
+ */
+package javaeetutorial.sharedconsumer;
+
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import javax.jms.JMSException;
+import javax.jms.Message;
+import javax.jms.MessageListener;
+
+/**
+ * The OrderedDispatcher class is a message listener that hands each message
+ * to another listener on a pool of worker threads.
+ *
+ * Messages with the same key are always processed by the same worker, one
+ * after the other, in the order they were delivered; messages with different
+ * keys are processed in parallel. The key is the value of the key property
+ * given to the constructor (for example "HireID"), or the JMSXGroupID
+ * property. Messages without a key are spread over the workers.
+ *
+ * Each worker accepts at most prefetch messages that are not yet processed.
+ * When a worker is full, onMessage waits, which stops the provider from
+ * delivering more messages to this consumer.
+ *
+ * Messages are acknowledged when onMessage returns, that is, when they are
+ * queued on a worker, so messages still queued are lost if the program
+ * ends abruptly. Call close to process them before exiting.
+ */
+public class OrderedDispatcher implements MessageListener, AutoCloseable {
+
+    private final MessageListener listener;
+    private final String keyProperty;
+    private final ExecutorService[] workers;
+    private final Semaphore[] slots;
+    private final AtomicInteger nextWorker = new AtomicInteger();
+
+    /**
+     * Creates a dispatcher and starts its workers.
+     *
+     * @param listener the listener that processes the messages
+     * @param keyProperty the message property holding the ordering key, or
+     * null to use JMSXGroupID only
+     * @param concurrency the number of workers
+     * @param prefetch the number of unprocessed messages per worker
+     */
+    public OrderedDispatcher(MessageListener listener, String keyProperty,
+            int concurrency, int prefetch) {
+        this.listener = listener;
+        this.keyProperty = keyProperty;
+        this.workers = new ExecutorService[Math.max(1, concurrency)];
+        this.slots = new Semaphore[workers.length];
+        for (int i = 0; i < workers.length; i++) {
+            final String name = "dispatcher-worker-" + i;
+            workers[i] = Executors.newSingleThreadExecutor(new ThreadFactory() {
+                @Override
+                public Thread newThread(Runnable r) {
+                    Thread t = new Thread(r, name);
+                    t.setDaemon(true);
+                    return t;
+                }
+            });
+            slots[i] = new Semaphore(Math.max(1, prefetch));
+        }
+    }
+
+    /**
+     * Queues the message on the worker for its key.
+     *
+     * @param message the incoming message
+     */
+    @Override
+    public void onMessage(final Message message) {
+        final int worker = workerFor(message);
+        slots[worker].acquireUninterruptibly();
+        workers[worker].execute(new Runnable() {
+            @Override
+            public void run() {
+                try {
+                    listener.onMessage(message);
+                } catch (RuntimeException e) {
+                    System.err.println("Exception in listener: " + e.toString());
+                } finally {
+                    slots[worker].release();
+                }
+            }
+        });
+    }
+
+    /**
+     * Processes the queued messages and stops the workers.
+     */
+    @Override
+    public void close() {
+        for (ExecutorService w : workers) {
+            w.shutdown();
+        }
+        try {
+            for (ExecutorService w : workers) {
+                w.awaitTermination(1, TimeUnit.MINUTES);
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    private int workerFor(Message message) {
+        String key = null;
+        try {
+            if (keyProperty != null && message.propertyExists(keyProperty)) {
+                key = message.getObjectProperty(keyProperty).toString();
+            } else if (message.propertyExists("JMSXGroupID")) {
+                key = message.getStringProperty("JMSXGroupID");
+            }
+        } catch (JMSException e) {
+            System.err.println("Cannot read message key: " + e.toString());
+        }
+        if (key == null) {
+            return (nextWorker.getAndIncrement() & Integer.MAX_VALUE)
+                    % workers.length;
+        }
+        return (key.hashCode() & Integer.MAX_VALUE) % workers.length;
+    }
+}
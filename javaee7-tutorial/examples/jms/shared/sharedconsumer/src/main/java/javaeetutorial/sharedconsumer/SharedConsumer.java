@@ -21,6 +21,10 @@ import javax.jms.Topic;
  * more messages from a topic using asynchronous message delivery. It uses the 
  * message listener TextListener. Run two instances of this program at the same
  * time, in conjunction with Producer. 
+ *
+ * Each instance processes its messages in parallel with an OrderedDispatcher
+ * using one worker per processor; messages with the same HireID property keep
+ * their order.
  */
 public class SharedConsumer {
 
@@ -28,6 +32,8 @@ public class SharedConsumer {
     private static ConnectionFactory connectionFactory;
     @Resource(lookup = "jms/MyTopic")
     private static Topic topic;
+    private static final String KEY_PROPERTY = "HireID";
+    private static final int PREFETCH = 100;
 
     public static void main(String[] args) {
         JMSConsumer consumer;
@@ -42,12 +48,15 @@ public class SharedConsumer {
          * message stream.
          * Report number of messages received.
          */
-        try (JMSContext context = connectionFactory.createContext();) {
+        listener = new TextListener();
+        try (OrderedDispatcher dispatcher = new OrderedDispatcher(listener,
+                KEY_PROPERTY, Runtime.getRuntime().availableProcessors(),
+                PREFETCH);
+                JMSContext context = connectionFactory.createContext();) {
             consumer = context.createSharedConsumer(topic, "SubName");
             System.out.println("Waiting for messages on topic");
             
-            listener = new TextListener();
-            consumer.setMessageListener(listener);
+            consumer.setMessageListener(dispatcher);
             System.out.println(
                     "To end program, enter Q or q, " + "then <return>");
             inputStreamReader = new InputStreamReader(System.in);
@@ -59,11 +68,11 @@ public class SharedConsumer {
                     System.err.println("I/O exception: " + e.toString());
                 }
             }
-            System.out.println("Text messages received: " + listener.getCount());
         } catch (JMSRuntimeException e) {
             System.err.println("Exception occurred: " + e.toString());
             System.exit(1);
         }
+        System.out.println("Text messages received: " + listener.getCount());
         System.exit(0);
     }
 }
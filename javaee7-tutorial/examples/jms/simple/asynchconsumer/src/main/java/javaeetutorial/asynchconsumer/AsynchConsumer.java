@@ -25,6 +25,9 @@ import javax.jms.Topic;
  * with Producer.
  *
  * Specify "queue" or "topic" on the command line when you run the program.
+ * Optionally specify the number of worker threads and the number of messages
+ * each worker can have waiting. Messages are processed in parallel by an
+ * OrderedDispatcher; messages with the same HireID property keep their order.
  * To end the program, enter Q or q on the command line.
  */
 public class AsynchConsumer {
@@ -35,25 +38,38 @@ public class AsynchConsumer {
     private static Queue queue;
     @Resource(lookup = "jms/MyTopic")
     private static Topic topic;
+    private static final String KEY_PROPERTY = "HireID";
+    private static final int DEFAULT_PREFETCH = 100;
 
     /**
      * Main method.
      *
-     * @param args the destination name and type used by the example
+     * @param args the destination name and type used by the example and,
+     * optionally, the number of workers and the prefetch per worker
      */
     public static void main(String[] args) {
         String destType;
+        int concurrency = Runtime.getRuntime().availableProcessors();
+        int prefetch = DEFAULT_PREFETCH;
         Destination dest = null;
         JMSConsumer consumer;
         TextListener listener;
         InputStreamReader inputStreamReader;
         char answer = '\0';
 
-        if (args.length != 1) {
-            System.err.println("Program takes one argument: <dest_type>");
+        if ((args.length < 1) || (args.length > 3)) {
+            System.err.println("Program takes one to three arguments: "
+                    + "<dest_type> [<concurrency> [<prefetch>]]");
             System.exit(1);
         }
 
+        if (args.length >= 2) {
+            concurrency = (new Integer(args[1])).intValue();
+        }
+        if (args.length == 3) {
+            prefetch = (new Integer(args[2])).intValue();
+        }
+
         destType = args[0];
         System.out.println("Destination type is " + destType);
 
@@ -74,16 +90,20 @@ public class AsynchConsumer {
         }
 
         /*
-         * In a try-with-resources block, create context.
+         * In a try-with-resources block, create dispatcher and context.
          * Create consumer.
-         * Register message listener (TextListener).
+         * Register message listener (TextListener), through the dispatcher.
          * Receive text messages from destination.
          * When all messages have been received, enter Q to quit.
+         * The context is closed first, then the dispatcher finishes the
+         * messages it still holds.
          */
-        try (JMSContext context = connectionFactory.createContext();) {
+        listener = new TextListener();
+        try (OrderedDispatcher dispatcher = new OrderedDispatcher(listener,
+                KEY_PROPERTY, concurrency, prefetch);
+                JMSContext context = connectionFactory.createContext();) {
             consumer = context.createConsumer(dest);
-            listener = new TextListener();
-            consumer.setMessageListener(listener);
+            consumer.setMessageListener(dispatcher);
             System.out.println("To end program, enter Q or q, then <return>");
             inputStreamReader = new InputStreamReader(System.in);
 
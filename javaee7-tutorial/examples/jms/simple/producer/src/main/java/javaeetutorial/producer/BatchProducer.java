@@ -0,0 +1,239 @@
+/**
+ * Copyright (c) 2014 Oracle and/or its affiliates. All rights reserved.
+ *
+ * You may not modify, use, reproduce, or distribute this software except in
+ * compliance with  the terms of the License at:
+ * http://java.net/projects/javaeetutorial/pages/BerkeleyLicense
+ */
+package javaeetutorial.producer;
+
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import javax.jms.CompletionListener;
+import javax.jms.ConnectionFactory;
+import javax.jms.Destination;
+import javax.jms.JMSContext;
+import javax.jms.JMSProducer;
+import javax.jms.JMSRuntimeException;
+import javax.jms.Message;
+
+/**
+ * The BatchProducer class sends messages to one destination through a single
+ * JMSContext and a single JMSProducer.
+ *
+ * Sends are asynchronous: each send returns as soon as the message is handed
+ * to the provider and a CompletionListener records when the provider
+ * acknowledges it. At most maxInFlight messages are outstanding at a time.
+ *
+ * When the producer is transacted, the session is committed every batchSize
+ * messages, or on the first send after batchMillis have passed since the
+ * first uncommitted message, and on flush and close. A batch in which a send
+ * failed is rolled back instead, and the commit throws. A JMSContext must not be
+ * used by more than one thread, so the time limit is checked when sending
+ * rather than by a timer.
+ *
+ * The class is meant for Java SE and application clients. In the web and EJB
+ * containers asynchronous sends and transacted contexts are not allowed; reuse
+ * one JMSProducer and let the container transaction do the batching there.
+ */
+public class BatchProducer implements AutoCloseable {
+
+    private final JMSContext context;
+    private final JMSProducer producer;
+    private final Destination destination;
+    private final boolean transacted;
+    private final int batchSize;
+    private final long batchNanos;
+    private final Semaphore inFlight;
+    private final int maxInFlight;
+
+    private int uncommitted;
+    private long batchStart;
+    private long firstSend;
+    private long commits;
+    private final AtomicLong sent = new AtomicLong();
+    private final AtomicLong completed = new AtomicLong();
+    private final AtomicLong failed = new AtomicLong();
+    private final AtomicLong totalLatency = new AtomicLong();
+    private final AtomicLong maxLatency = new AtomicLong();
+    private volatile Exception lastFailure;
+
+    /**
+     * Creates a producer.
+     *
+     * @param connectionFactory the factory used to create the context
+     * @param destination where the messages are sent
+     * @param transacted whether to commit the messages in batches
+     * @param batchSize messages per commit, ignored when not transacted
+     * @param batchMillis maximum age of an uncommitted batch, ignored when
+     * not transacted
+     * @param maxInFlight maximum number of sends not yet acknowledged
+     */
+    public BatchProducer(ConnectionFactory connectionFactory,
+            Destination destination, boolean transacted, int batchSize,
+            long batchMillis, int maxInFlight) {
+        this.context = transacted
+                ? connectionFactory.createContext(JMSContext.SESSION_TRANSACTED)
+                : connectionFactory.createContext();
+        this.producer = context.createProducer();
+        this.destination = destination;
+        this.transacted = transacted;
+        this.batchSize = Math.max(1, batchSize);
+        this.batchNanos = TimeUnit.MILLISECONDS.toNanos(batchMillis);
+        this.maxInFlight = Math.max(1, maxInFlight);
+        this.inFlight = new Semaphore(this.maxInFlight);
+    }
+
+    /**
+     * The context messages should be created with.
+     *
+     * @return the context used by this producer
+     */
+    public JMSContext getContext() {
+        return context;
+    }
+
+    /**
+     * Sends a text message.
+     *
+     * @param text the message text
+     */
+    public void send(String text) {
+        send(context.createTextMessage(text));
+    }
+
+    /**
+     * Sends a message, waiting only if maxInFlight sends are outstanding.
+     *
+     * @param message the message, created with getContext()
+     */
+    public void send(Message message) {
+        acquire(1);
+        final long start = System.nanoTime();
+        if (firstSend == 0) {
+            firstSend = start;
+        }
+        if (uncommitted == 0) {
+            batchStart = start;
+        }
+        producer.setAsync(new CompletionListener() {
+            @Override
+            public void onCompletion(Message message) {
+                record(System.nanoTime() - start);
+                inFlight.release();
+            }
+
+            @Override
+            public void onException(Message message, Exception exception) {
+                failed.incrementAndGet();
+                lastFailure = exception;
+                inFlight.release();
+            }
+        });
+        producer.send(destination, message);
+        sent.incrementAndGet();
+        uncommitted++;
+        if (transacted && (uncommitted >= batchSize
+                || System.nanoTime() - batchStart >= batchNanos)) {
+            commit();
+        }
+    }
+
+    /**
+     * Waits for every outstanding send and commits the current batch.
+     */
+    public void flush() {
+        if (transacted && uncommitted > 0) {
+            commit();
+            return;
+        }
+        acquire(maxInFlight);
+        try {
+            checkFailure();
+        } finally {
+            inFlight.release(maxInFlight);
+        }
+    }
+
+    /**
+     * Flushes and closes the context.
+     */
+    @Override
+    public void close() {
+        try {
+            flush();
+        } finally {
+            context.close();
+        }
+    }
+
+    /**
+     * Summary of what was sent so far, for example
+     * "1000 sent, 1000 acknowledged, 0 failed, 10 commits in 412 ms
+     * (2427 msg/s), latency avg 1.2 ms max 9.8 ms".
+     *
+     * @return the throughput and latency report
+     */
+    public String getReport() {
+        long elapsed = firstSend == 0 ? 0 : System.nanoTime() - firstSend;
+        long done = completed.get();
+        double elapsedMillis = elapsed / 1e6;
+        double rate = elapsed == 0 ? 0 : sent.get() / (elapsed / 1e9);
+        double avgMillis = done == 0 ? 0 : totalLatency.get() / 1e6 / done;
+        return String.format(
+                "%d sent, %d acknowledged, %d failed, %d commits in %.0f ms "
+                + "(%.0f msg/s), latency avg %.1f ms max %.1f ms",
+                sent.get(), done, failed.get(), commits, elapsedMillis, rate,
+                avgMillis, maxLatency.get() / 1e6);
+    }
+
+    private void commit() {
+        // Outstanding sends must complete before their batch is committed
+        acquire(maxInFlight);
+        try {
+            if (lastFailure != null) {
+                uncommitted = 0;
+                context.rollback();
+            } else {
+                context.commit();
+                commits++;
+                uncommitted = 0;
+            }
+            checkFailure();
+        } finally {
+            inFlight.release(maxInFlight);
+        }
+    }
+
+    /**
+     * Throws, and forgets, the failure of a send since the last check. The
+     * caller holds every permit, so no send is outstanding.
+     */
+    private void checkFailure() {
+        Exception failure = lastFailure;
+        if (failure != null) {
+            lastFailure = null;
+            throw new JMSRuntimeException("Asynchronous send failed: "
+                    + failure.toString());
+        }
+    }
+
+    private void record(long latency) {
+        completed.incrementAndGet();
+        totalLatency.addAndGet(latency);
+        long max = maxLatency.get();
+        while (latency > max && !maxLatency.compareAndSet(max, latency)) {
+            max = maxLatency.get();
+        }
+    }
+
+    private void acquire(int permits) {
+        try {
+            inFlight.acquire(permits);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new JMSRuntimeException("Interrupted while sending");
+        }
+    }
+}
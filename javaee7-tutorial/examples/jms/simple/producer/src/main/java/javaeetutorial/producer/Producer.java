@@ -10,7 +10,6 @@ package javaeetutorial.producer;
 import javax.annotation.Resource;
 import javax.jms.ConnectionFactory;
 import javax.jms.Destination;
-import javax.jms.JMSContext;
 import javax.jms.JMSRuntimeException;
 import javax.jms.Queue;
 import javax.jms.Topic;
@@ -22,7 +21,9 @@ import javax.jms.Topic;
  * Run this program in conjunction with SynchConsumer or AsynchConsumer. Specify
  * "queue" or "topic" on the command line when you run the program. By default,
  * the program sends one message. Specify a number after the destination name to
- * send that number of messages.
+ * send that number of messages. Messages are sent asynchronously through a
+ * BatchProducer and committed in batches of 100; a third argument sets the
+ * batch size. A throughput and latency report is printed at the end.
  */
 public class Producer {
 
@@ -32,20 +33,24 @@ public class Producer {
     private static Queue queue;
     @Resource(lookup = "jms/MyTopic")
     private static Topic topic;
+    private static final int DEFAULT_BATCH_SIZE = 100;
+    private static final long BATCH_MILLIS = 50;
+    private static final int MAX_IN_FLIGHT = 1000;
 
     /**
      * Main method.
      *
      * @param args the destination used by the example and, optionally, the
-     * number of messages to send
+     * number of messages to send and the number of messages per commit
      */
     public static void main(String[] args) {
         final int NUM_MSGS;
+        final int BATCH_SIZE;
 
-        if ((args.length < 1) || (args.length > 2)) {
+        if ((args.length < 1) || (args.length > 3)) {
             System.err.println(
-                    "Program takes one or two arguments: "
-                    + "<dest_type> [<number-of-messages>]");
+                    "Program takes one to three arguments: "
+                    + "<dest_type> [<number-of-messages> [<batch-size>]]");
             System.exit(1);
         }
 
@@ -57,12 +62,18 @@ public class Producer {
             System.exit(1);
         }
 
-        if (args.length == 2) {
+        if (args.length >= 2) {
             NUM_MSGS = (new Integer(args[1])).intValue();
         } else {
             NUM_MSGS = 1;
         }
 
+        if (args.length == 3) {
+            BATCH_SIZE = (new Integer(args[2])).intValue();
+        } else {
+            BATCH_SIZE = DEFAULT_BATCH_SIZE;
+        }
+
         Destination dest = null;
 
         try {
@@ -77,12 +88,14 @@ public class Producer {
         }
 
         /*
-         * Within a try-with-resources block, create context.
-         * Create producer and message.
+         * Within a try-with-resources block, create the batch producer
+         * and its context.
          * Send messages, varying text slightly.
          * Send end-of-messages message.
+         * Closing the producer waits for the sends and commits.
          */
-        try (JMSContext context = connectionFactory.createContext();) {
+        try (BatchProducer producer = new BatchProducer(connectionFactory,
+                dest, true, BATCH_SIZE, BATCH_MILLIS, MAX_IN_FLIGHT)) {
             int count = 0;
 
             for (int i = 0; i < NUM_MSGS; i++) {
@@ -90,7 +103,7 @@ public class Producer {
                         + " from producer";
                 // Comment out the following line to send many messages
                 System.out.println("Sending message: " + message);
-                context.createProducer().send(dest, message);
+                producer.send(message);
                 count += 1;
             }
             System.out.println("Text messages sent: " + count);
@@ -99,10 +112,12 @@ public class Producer {
              * Send a non-text control message indicating end of
              * messages.
              */
-            context.createProducer().send(dest, context.createMessage());
+            producer.send(producer.getContext().createMessage());
             // Uncomment the following line if you are sending many messages
             // to two synchronous consumers
-            // context.createProducer().send(dest, context.createMessage());
+            // producer.send(producer.getContext().createMessage());
+            producer.flush();
+            System.out.println(producer.getReport());
         } catch (JMSRuntimeException e) {
             System.err.println("Exception occurred: " + e.toString());
             System.exit(1);
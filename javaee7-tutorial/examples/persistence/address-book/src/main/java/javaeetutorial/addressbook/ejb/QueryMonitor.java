@@ -0,0 +1,82 @@
+/**
+ * Copyright (c) 2014 Oracle and/or its affiliates. All rights reserved.
+ *
+ * You may not modify, use, reproduce, or distribute this software except in
+ * compliance with  the terms of the License at:
+ * http://java.net/projects/javaeetutorial/pages/BerkeleyLicense
+ */
+package javaeetutorial.addressbook.ejb;
+
+import java.util.Collection;
+import javax.annotation.Priority;
+import javax.enterprise.context.ContextNotActiveException;
+import javax.inject.Inject;
+import javax.interceptor.AroundInvoke;
+import javax.interceptor.Interceptor;
+import javax.interceptor.InvocationContext;
+
+/**
+ * Measures the calls made to the facades: the number of calls, the rows
+ * they return and the time spent in them. Each call is added to the
+ * summary of the current request (RequestQueryLog) and to the application
+ * totals published over JMX (QueryStatistics).
+ *
+ * A facade call runs one query or one entity operation, so the counts show
+ * how much database work a page does, and a facade method called many times
+ * in one request usually means entities are read one by one (N+1).
+ *
+ * @author ian
+ */
+@QueryMonitored
+@Interceptor
+@Priority(Interceptor.Priority.APPLICATION)
+public class QueryMonitor {
+
+    @Inject
+    private RequestQueryLog requestLog;
+    @Inject
+    private QueryStatistics statistics;
+
+    @AroundInvoke
+    public Object monitor(InvocationContext context) throws Exception {
+        String name = facadeName(context.getTarget().getClass())
+                + "." + context.getMethod().getName();
+        boolean inRequest = enter();
+        long start = System.nanoTime();
+        Object result = null;
+        try {
+            result = context.proceed();
+            return result;
+        } finally {
+            long elapsed = System.nanoTime() - start;
+            int rows = rows(result);
+            statistics.record(name, rows, elapsed);
+            if (inRequest && requestLog.exit(name, rows, elapsed)) {
+                statistics.repeated(name);
+            }
+        }
+    }
+
+    /* Returns false when there is no request to add the call to */
+    private boolean enter() {
+        try {
+            requestLog.enter();
+            return true;
+        } catch (ContextNotActiveException e) {
+            return false;
+        }
+    }
+
+    private static String facadeName(Class<?> type) {
+        String name = type.getSimpleName();
+        int proxy = name.indexOf('$');
+        return proxy > 0 ? name.substring(0, proxy) : name;
+    }
+
+    private static int rows(Object result) {
+        if (result == null) {
+            return 0;
+        }
+        return result instanceof Collection ? ((Collection<?>) result).size() : 1;
+    }
+}
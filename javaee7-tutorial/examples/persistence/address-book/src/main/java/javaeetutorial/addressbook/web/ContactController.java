@@ -8,10 +8,12 @@
 package javaeetutorial.addressbook.web;
 
 import java.io.Serializable;
+import java.util.List;
 import java.util.ResourceBundle;
 import javaeetutorial.addressbook.ejb.ContactFacade;
 import javaeetutorial.addressbook.entity.Contact;
 import javaeetutorial.addressbook.web.util.JsfUtil;
+import javaeetutorial.addressbook.web.util.KeysetPaginationHelper;
 import javaeetutorial.addressbook.web.util.PaginationHelper;
 import javax.ejb.EJB;
 import javax.enterprise.context.SessionScoped;
@@ -20,7 +22,6 @@ import javax.faces.context.FacesContext;
 import javax.faces.convert.Converter;
 import javax.faces.convert.FacesConverter;
 import javax.faces.model.DataModel;
-import javax.faces.model.ListDataModel;
 import javax.faces.model.SelectItem;
 import javax.inject.Named;
 
@@ -28,6 +29,8 @@ import javax.inject.Named;
 @SessionScoped
 public class ContactController implements Serializable {
     private static final long serialVersionUID = -8163374738411860012L;
+    /* How long the "n..m/count" total may be reused */
+    private static final long COUNT_MAX_AGE = 30000;
     private Contact current;
     private DataModel items = null;
     @EJB private ContactFacade ejbFacade;
@@ -51,16 +54,21 @@ public class ContactController implements Serializable {
 
     public PaginationHelper getPagination() {
         if (pagination == null) {
-            pagination = new PaginationHelper(10) {
+            pagination = new KeysetPaginationHelper<Contact, Long>(10) {
 
                 @Override
                 public int getItemsCount() {
-                    return getFacade().count();
+                    return getFacade().countCached(COUNT_MAX_AGE);
                 }
 
                 @Override
-                public DataModel createPageDataModel() {
-                    return new ListDataModel(getFacade().findRange(new int[]{getPageFirstItem(), getPageFirstItem()+getPageSize()}));
+                public List<Contact> fetchPage(Long after, int maxResults) {
+                    return getFacade().findRangeAfter(after, maxResults);
+                }
+
+                @Override
+                public Long getKey(Contact row) {
+                    return row.getId();
                 }
             };
         }
@@ -143,17 +151,17 @@ public class ContactController implements Serializable {
     }
 
     private void updateCurrentItem() {
-        int count = getFacade().count();
-        if (selectedItemIndex >= count) {
-            // selected index cannot be bigger than number of items:
-            selectedItemIndex = count-1;
-            // go to previous page if last page disappeared:
-            if (pagination.getPageFirstItem() >= count) {
-                pagination.previousPage();
-            }
-        }
-        if (selectedItemIndex >= 0) {
-            current = getFacade().findRange(new int[]{selectedItemIndex, selectedItemIndex+1}).get(0);
+        // stay on the same row of the page, or on its last row if the page
+        // got shorter; an emptied page falls back to the previous one
+        DataModel page = getItems();
+        int row = Math.min(selectedItemIndex - pagination.getPageFirstItem(),
+                page.getRowCount() - 1);
+        if (row >= 0) {
+            page.setRowIndex(row);
+            current = (Contact)page.getRowData();
+            selectedItemIndex = pagination.getPageFirstItem() + row;
+        } else {
+            selectedItemIndex = -1;
         }
     }
 
@@ -0,0 +1,100 @@
+/**
+ * Copyright (c) 2014 Oracle and/or its affiliates. All rights reserved.
+ *
+ * You may not modify, use, reproduce, or distribute this software except in
+ * compliance with  the terms of the License at:
+ * http://java.net/projects/javaeetutorial/pages/BerkeleyLicense
+ */
+package javaeetutorial.addressbook.web.util;
+
+import java.util.ArrayList;
+import java.util.List;
+import javax.faces.model.DataModel;
+import javax.faces.model.ListDataModel;
+
+/*
+ * Pagination helper that moves between pages by key instead of by offset.
+ * T is the type of the rows and K the type of their key.
+ *
+ * Each page is fetched with the key of the last row of the previous page
+ * (see AbstractFacade.findRangeAfter), so every page costs the same. One
+ * extra row is fetched to know whether there is a next page, and the keys
+ * where the visited pages start are remembered to go back. Only the
+ * "n..m/count" text needs getItemsCount, which subclasses should cache.
+ */
+public abstract class KeysetPaginationHelper<T, K> extends PaginationHelper {
+
+    /* Key after which each visited page starts, null for the first page */
+    private final List<K> pageStarts = new ArrayList<>();
+    private K pageLastKey;
+    private boolean hasNextPage;
+
+    public KeysetPaginationHelper(int pageSize) {
+        super(pageSize);
+        pageStarts.add(null);
+    }
+
+    /* Returns at most maxResults rows with a key greater than after, in key
+     * order; after is null for the first page */
+    public abstract List<T> fetchPage(K after, int maxResults);
+
+    public abstract K getKey(T row);
+
+    @Override
+    public DataModel<T> createPageDataModel() {
+        List<T> rows = new ArrayList<>(
+                fetchPage(getPageStart(), getPageSize() + 1));
+        /* The rows of this page were removed, show the previous page */
+        while (rows.isEmpty() && pageStarts.size() > 1) {
+            pageStarts.remove(pageStarts.size() - 1);
+            rows = new ArrayList<>(
+                    fetchPage(getPageStart(), getPageSize() + 1));
+        }
+        hasNextPage = rows.size() > getPageSize();
+        if (hasNextPage) {
+            rows = rows.subList(0, getPageSize());
+        }
+        pageLastKey = rows.isEmpty() ? null : getKey(rows.get(rows.size() - 1));
+        return new ListDataModel<>(rows);
+    }
+
+    @Override
+    public int getPageFirstItem() {
+        return (pageStarts.size() - 1) * getPageSize();
+    }
+
+    @Override
+    public boolean isHasNextPage() {
+        return hasNextPage;
+    }
+
+    @Override
+    public void nextPage() {
+        if (hasNextPage && pageLastKey != null) {
+            pageStarts.add(pageLastKey);
+            hasNextPage = false;
+        }
+    }
+
+    @Override
+    public boolean isHasPreviousPage() {
+        return pageStarts.size() > 1;
+    }
+
+    @Override
+    public void previousPage() {
+        if (isHasPreviousPage()) {
+            pageStarts.remove(pageStarts.size() - 1);
+        }
+    }
+
+    public void firstPage() {
+        pageStarts.subList(1, pageStarts.size()).clear();
+        hasNextPage = false;
+    }
+
+    private K getPageStart() {
+        return pageStarts.get(pageStarts.size() - 1);
+    }
+
+}
@@ -0,0 +1,173 @@
+/**
+ * Copyright (c) 2014 Oracle and/or its affiliates. All rights reserved.
+ *
+ * You may not modify, use, reproduce, or distribute this software except in
+ * compliance with  the terms of the License at:
+ * http://java.net/projects/javaeetutorial/pages/BerkeleyLicense
+ */
+package javaeetutorial.order.ejb;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+import javaeetutorial.order.entity.PartKey;
+import javax.annotation.Resource;
+import javax.ejb.ConcurrencyManagement;
+import javax.ejb.ConcurrencyManagementType;
+import javax.ejb.Singleton;
+import javax.persistence.EntityManager;
+import javax.persistence.PersistenceContext;
+import javax.transaction.Synchronization;
+import javax.transaction.TransactionSynchronizationRegistry;
+
+/**
+ * Rolled-up prices of bills of material.
+ *
+ * The structure of all the parts (which BOM each part belongs to) and
+ * their vendor prices are read with a single query. A part that has
+ * components costs the sum of its components, at any depth; any other part
+ * costs its vendor price. Each part is priced once and kept by PartKey, so
+ * a subassembly is not priced again for every BOM that contains it.
+ *
+ * BillOfMaterialListener reports changes to parts and vendor parts; the
+ * structure and the prices are read again after the transaction that made
+ * the change completes.
+ *
+ * @author ian
+ */
+@Singleton
+@ConcurrencyManagement(ConcurrencyManagementType.BEAN)
+public class BillOfMaterialPricer {
+
+    private static final Logger logger = Logger.getLogger("order.ejb.BillOfMaterialPricer");
+    @PersistenceContext
+    private EntityManager em;
+    @Resource
+    private TransactionSynchronizationRegistry registry;
+    private final AtomicLong version = new AtomicLong();
+    private volatile Structure structure;
+
+    /**
+     * @param key a part
+     * @return the price of its components, or its vendor price if it has
+     * none
+     */
+    public double getPrice(PartKey key) {
+        return structure().cost(key, new HashSet<PartKey>());
+    }
+
+    /**
+     * Called when a part or a vendor part changes. Prices are computed again
+     * after the current transaction completes.
+     */
+    public void changed() {
+        if (registry.getTransactionKey() == null) {
+            version.incrementAndGet();
+            return;
+        }
+        if (registry.getResource(BillOfMaterialPricer.class) == null) {
+            registry.putResource(BillOfMaterialPricer.class, Boolean.TRUE);
+            registry.registerInterposedSynchronization(new Synchronization() {
+                @Override
+                public void beforeCompletion() {
+                }
+
+                @Override
+                public void afterCompletion(int status) {
+                    version.incrementAndGet();
+                }
+            });
+        }
+    }
+
+    private Structure structure() {
+        Structure s = structure;
+        if (s == null || s.version != version.get()) {
+            s = load();
+        }
+        return s;
+    }
+
+    private synchronized Structure load() {
+        long current = version.get();
+        if (structure != null && structure.version == current) {
+            return structure;
+        }
+        List<Object[]> rows = em.createNamedQuery("findBillOfMaterialStructure", Object[].class)
+                .getResultList();
+        Structure s = new Structure(current, rows);
+        structure = s;
+        logger.log(Level.INFO, "Bill of material structure read, {0} parts", rows.size());
+        return s;
+    }
+
+    private static PartKey key(Object partNumber, Object revision) {
+        PartKey key = new PartKey();
+        key.setPartNumber((String) partNumber);
+        key.setRevision((Integer) revision);
+        return key;
+    }
+
+    /* Parts, their components and vendor prices, with the prices computed
+     * so far */
+    private static final class Structure {
+
+        private final long version;
+        private final Map<PartKey, Double> prices = new HashMap<>();
+        private final Map<PartKey, List<PartKey>> components = new HashMap<>();
+        private final ConcurrentMap<PartKey, Double> costs = new ConcurrentHashMap<>();
+
+        /* rows of part number, revision, BOM part number, BOM revision and
+         * vendor price */
+        Structure(long version, List<Object[]> rows) {
+            this.version = version;
+            for (Object[] row : rows) {
+                PartKey part = key(row[0], row[1]);
+                prices.put(part, row[4] == null ? 0.0 : ((Number) row[4]).doubleValue());
+                if (row[2] != null) {
+                    PartKey bom = key(row[2], row[3]);
+                    List<PartKey> parts = components.get(bom);
+                    if (parts == null) {
+                        parts = new ArrayList<>();
+                        components.put(bom, parts);
+                    }
+                    parts.add(part);
+                }
+            }
+        }
+
+        double cost(PartKey key, Set<PartKey> visiting) {
+            Double cached = costs.get(key);
+            if (cached != null) {
+                return cached;
+            }
+            if (!prices.containsKey(key)) {
+                throw new IllegalArgumentException("Unknown part " + key);
+            }
+            double cost;
+            List<PartKey> parts = components.get(key);
+            if (parts == null) {
+                cost = prices.get(key);
+            } else {
+                if (!visiting.add(key)) {
+                    throw new IllegalStateException("Part " + key + " contains itself");
+                }
+                cost = 0.0;
+                for (PartKey part : parts) {
+                    cost += cost(part, visiting);
+                }
+                visiting.remove(key);
+            }
+            costs.put(key, cost);
+            return cost;
+        }
+    }
+}
@@ -9,9 +9,10 @@ package javaeetutorial.order.ejb;
 
 import java.io.Serializable;
 import java.util.ArrayList;
-import java.util.Collection;
+import java.util.Collections;
 import java.util.Iterator;
 import java.util.List;
+import java.util.Map;
 import java.util.logging.Level;
 import java.util.logging.Logger;
 import javaeetutorial.order.entity.CustomerOrder;
@@ -20,6 +21,7 @@ import javaeetutorial.order.entity.Part;
 import javaeetutorial.order.entity.PartKey;
 import javaeetutorial.order.entity.Vendor;
 import javaeetutorial.order.entity.VendorPart;
+import javax.ejb.EJB;
 import javax.ejb.EJBException;
 import javax.ejb.Stateful;
 import javax.persistence.EntityManager;
@@ -31,6 +33,8 @@ public class RequestBean {
     
     @PersistenceContext
     private EntityManager em;
+    @EJB
+    private BillOfMaterialPricer bomPricer;
 
     private static final Logger logger = Logger.getLogger("order.ejb.RequestBean");
     
@@ -142,65 +146,78 @@ public class RequestBean {
     }
     
     public void addLineItem(Integer orderId, String partNumber, int revision, int quantity) {
+        PartKey pkey = new PartKey();
+        pkey.setPartNumber(partNumber);
+        pkey.setRevision(revision);
+        addLineItems(orderId, Collections.singletonMap(pkey, quantity));
+    }
+
+    /**
+     * Adds several line items to an order in one call. The order and its
+     * line items are read once, and each part once.
+     *
+     * @param orderId the order
+     * @param quantities the quantity of each part, in line item order
+     */
+    public void addLineItems(Integer orderId, Map<PartKey, Integer> quantities) {
         try {
             CustomerOrder order = em.find(CustomerOrder.class, orderId);
             logger.log(Level.INFO, "Found order ID {0}", orderId);
-            
-            PartKey pkey = new PartKey();
-            pkey.setPartNumber(partNumber);
-            pkey.setRevision(revision);
-            
-            Part part = em.find(Part.class, pkey);
-            
-            LineItem lineItem = new LineItem(order, quantity, part.getVendorPart());
-            order.addLineItem(lineItem);
+
+            for (Map.Entry<PartKey, Integer> entry : quantities.entrySet()) {
+                Part part = em.find(Part.class, entry.getKey());
+
+                LineItem lineItem = new LineItem(order, entry.getValue(), part.getVendorPart());
+                order.addLineItem(lineItem);
+            }
         } catch (Exception e) {
-            logger.log(Level.WARNING, "Couldn''t add {0} to order ID {1}.", new Object[]{partNumber, orderId});
+            logger.log(Level.WARNING, "Couldn''t add {0} to order ID {1}.", new Object[]{quantities.keySet(), orderId});
             throw new EJBException(e.getMessage());
         }
     }
     
+    /**
+     * @return the rolled-up price of the BOM, including nested assemblies
+     */
     public double getBillOfMaterialPrice(String bomPartNumber, int bomRevision, String partNumber, int revision) {
-        double price = 0.0;
         try {
             PartKey bomkey = new PartKey();
             bomkey.setPartNumber(bomPartNumber);
             bomkey.setRevision(bomRevision);
             
-            Part bom = em.find(Part.class, bomkey);
-            Collection<Part> parts = bom.getParts();
-            for (Part part : parts) {
-                VendorPart vendorPart = part.getVendorPart();
-                price += vendorPart.getPrice();
-            }
-            
+            return bomPricer.getPrice(bomkey);
         } catch (Exception e) {
             throw new EJBException(e.getMessage());
         }
-        return price;
     }
     
     public double getOrderPrice(Integer orderId) {
-        double price = 0.0;
         try {
-            CustomerOrder order = em.find(CustomerOrder.class, orderId);
-            price = order.calculateAmmount();
+            Object[] result = (Object[]) em.createNamedQuery(
+                    "findOrderPrice")
+                    .setParameter("orderId", orderId)
+                    .getSingleResult();
+            int discount = (Integer) result[0];
+            double ammount = result[1] == null ? 0 : ((Number) result[1]).doubleValue();
+            return (ammount * (100 - discount))/100;
         } catch (Exception e) {
             throw new EJBException(e.getMessage());
         }
-        return price;
     }
     
-    public void adjustOrderDiscount(int adjustment) {
+    /**
+     * Adds an adjustment to the discount of every order, in a single UPDATE.
+     * Discounts stay between 0 and 100.
+     *
+     * @param adjustment the percentage to add, may be negative
+     * @return the number of orders updated
+     */
+    public int adjustOrderDiscount(int adjustment) {
         try {
-            List orders = em.createNamedQuery(
-                    "findAllOrders")
-                    .getResultList();
-            for (Iterator it = orders.iterator(); it.hasNext();) {
-                CustomerOrder order = (CustomerOrder)it.next();
-                int newDiscount = order.getDiscount() + adjustment;
-                order.setDiscount((newDiscount > 0)? newDiscount : 0);
-            }
+            return em.createNamedQuery(
+                    "adjustOrderDiscount")
+                    .setParameter("adjustment", adjustment)
+                    .executeUpdate();
         } catch (Exception e) {
             throw new EJBException(e.getMessage());
         }
@@ -246,16 +263,13 @@ public class RequestBean {
     }
     
     public int countAllItems() {
-        int count = 0;
         try {
-            count = em.createNamedQuery(
-                    "findAllLineItems")
-                    .getResultList()
-                    .size();
+            return ((Long) em.createNamedQuery(
+                    "countAllLineItems")
+                    .getSingleResult()).intValue();
         } catch (Exception e) {
             throw new EJBException(e.getMessage());
         }
-        return count;
     }
 
     public List<LineItem> getLineItems(int orderId) {
@@ -0,0 +1,33 @@
+/**
+ * Copyright (c) 2014 Oracle and/or its affiliates. All rights reserved.
+ *
+ * You may not modify, use, reproduce, or distribute this software except in
+ * compliance with  the terms of the License at:
+ * http://java.net/projects/javaeetutorial/pages/BerkeleyLicense
+ */
+package javaeetutorial.order.entity;
+
+import javaeetutorial.order.ejb.BillOfMaterialPricer;
+import javax.inject.Inject;
+import javax.persistence.PostPersist;
+import javax.persistence.PostRemove;
+import javax.persistence.PostUpdate;
+
+/**
+ * Entity listener of Part and VendorPart, which tells BillOfMaterialPricer
+ * that a BOM or a price changed.
+ *
+ * @author ian
+ */
+public class BillOfMaterialListener {
+
+    @Inject
+    private BillOfMaterialPricer pricer;
+
+    @PostPersist
+    @PostUpdate
+    @PostRemove
+    public void changed(Object entity) {
+        pricer.changed();
+    }
+}
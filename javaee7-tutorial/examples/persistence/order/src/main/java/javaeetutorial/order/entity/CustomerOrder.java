@@ -13,6 +13,7 @@ import java.util.Date;
 import static javax.persistence.CascadeType.ALL;
 import javax.persistence.Entity;
 import javax.persistence.Id;
+import javax.persistence.NamedQueries;
 import javax.persistence.NamedQuery;
 import javax.persistence.OneToMany;
 import javax.persistence.Table;
@@ -22,11 +23,29 @@ import javax.persistence.Transient;
 
 @Entity
 @Table(name="PERSISTENCE_ORDER_CUSTOMERORDER")
-@NamedQuery(
-    name="findAllOrders",
-    query="SELECT co FROM CustomerOrder co " +
-          "ORDER BY co.orderId"
-)
+@NamedQueries({
+    @NamedQuery(
+        name="findAllOrders",
+        query="SELECT co FROM CustomerOrder co " +
+              "ORDER BY co.orderId"
+    ),
+    @NamedQuery(
+        name="adjustOrderDiscount",
+        query="UPDATE CustomerOrder co " +
+              "SET co.discount = CASE " +
+              "WHEN co.discount + :adjustment < 0 THEN 0 " +
+              "WHEN co.discount + :adjustment > 100 THEN 100 " +
+              "ELSE co.discount + :adjustment END"
+    ),
+    @NamedQuery(
+        name="findOrderPrice",
+        query="SELECT co.discount, SUM(l.quantity * vp.price) " +
+              "FROM CustomerOrder co LEFT JOIN co.lineItems l " +
+              "LEFT JOIN l.vendorPart vp " +
+              "WHERE co.orderId = :orderId " +
+              "GROUP BY co.discount"
+    )
+})
 public class CustomerOrder implements java.io.Serializable {
     private static final long serialVersionUID = 6582105865012174694L;
     private Integer orderId;
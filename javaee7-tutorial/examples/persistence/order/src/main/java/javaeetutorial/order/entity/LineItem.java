@@ -26,6 +26,10 @@ import javax.persistence.Table;
     query="SELECT l " +
           "FROM LineItem l"),
     @NamedQuery(
+    name="countAllLineItems",
+    query="SELECT COUNT(l) " +
+          "FROM LineItem l"),
+    @NamedQuery(
     name="findLineItemsByOrderId",
     query="SELECT l FROM LineItem l " +
           "WHERE l.customerOrder.orderId = :orderId " +
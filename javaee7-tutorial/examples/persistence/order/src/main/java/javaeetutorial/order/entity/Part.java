@@ -13,12 +13,14 @@ import java.util.Date;
 import java.util.List;
 import javax.persistence.Column;
 import javax.persistence.Entity;
+import javax.persistence.EntityListeners;
 import javax.persistence.Id;
 import javax.persistence.IdClass;
 import javax.persistence.JoinColumn;
 import javax.persistence.JoinColumns;
 import javax.persistence.Lob;
 import javax.persistence.ManyToOne;
+import javax.persistence.NamedQueries;
 import javax.persistence.NamedQuery;
 import javax.persistence.OneToMany;
 import javax.persistence.OneToOne;
@@ -35,11 +37,19 @@ import static javax.persistence.TemporalType.DATE;
    @PrimaryKeyJoinColumn(name="PARTNUMBER", referencedColumnName="PARTNUMBER"),
    @PrimaryKeyJoinColumn(name="REVISION", referencedColumnName="REVISION")
 })
-@NamedQuery(
-    name="findAllParts",
-    query="SELECT p FROM Part p " +
-          "ORDER BY p.partNumber"
-)
+@EntityListeners(BillOfMaterialListener.class)
+@NamedQueries({
+    @NamedQuery(
+        name="findAllParts",
+        query="SELECT p FROM Part p " +
+              "ORDER BY p.partNumber"
+    ),
+    @NamedQuery(
+        name="findBillOfMaterialStructure",
+        query="SELECT p.partNumber, p.revision, b.partNumber, b.revision, vp.price " +
+              "FROM Part p LEFT JOIN p.bomPart b LEFT JOIN p.vendorPart vp"
+    )
+})
 public class Part implements Serializable {
     private static final long serialVersionUID = -3082087016342644227L;
     private String partNumber;
@@ -8,6 +8,7 @@
 package javaeetutorial.order.entity;
 
 import javax.persistence.Entity;
+import javax.persistence.EntityListeners;
 import javax.persistence.GeneratedValue;
 import javax.persistence.GenerationType;
 import javax.persistence.Id;
@@ -22,6 +23,7 @@ import javax.persistence.TableGenerator;
 import javax.persistence.UniqueConstraint;
 
 @Entity
+@EntityListeners(BillOfMaterialListener.class)
 @Table(name="PERSISTENCE_ORDER_VENDOR_PART",
        uniqueConstraints=
            @UniqueConstraint(columnNames={"PARTNUMBER", "PARTREVISION"})
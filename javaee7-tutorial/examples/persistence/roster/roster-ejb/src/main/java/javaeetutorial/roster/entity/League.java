@@ -11,12 +11,14 @@ import java.io.Serializable;
 import java.util.Collection;
 import static javax.persistence.CascadeType.ALL;
 import javax.persistence.Entity;
+import javax.persistence.EntityListeners;
 import javax.persistence.Id;
 import javax.persistence.OneToMany;
 import javax.persistence.Table;
 
 
 @Entity
+@EntityListeners(RosterListener.class)
 @Table(name = "PERSISTENCE_ROSTER_LEAGUE")
 public abstract class League implements Serializable {
     private static final long serialVersionUID = 5060910864394673463L;
@@ -10,11 +10,13 @@ package javaeetutorial.roster.entity;
 import java.io.Serializable;
 import java.util.Collection;
 import javax.persistence.Entity;
+import javax.persistence.EntityListeners;
 import javax.persistence.Id;
 import javax.persistence.ManyToMany;
 import javax.persistence.Table;
 
 @Entity
+@EntityListeners(RosterListener.class)
 @Table(name = "PERSISTENCE_ROSTER_PLAYER")
 public class Player implements Serializable {
     private static final long serialVersionUID = -2760127516426049966L;
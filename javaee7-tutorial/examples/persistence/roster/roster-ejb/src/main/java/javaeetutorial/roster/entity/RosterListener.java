@@ -0,0 +1,31 @@
+/**
+ * Copyright (c) 2014 Oracle and/or its affiliates. All rights reserved.
+ *
+ * You may not modify, use, reproduce, or distribute this software except in
+ * compliance with  the terms of the License at:
+ * http://java.net/projects/javaeetutorial/pages/BerkeleyLicense
+ */
+package javaeetutorial.roster.entity;
+
+import javaeetutorial.roster.request.RosterIndex;
+import javax.inject.Inject;
+import javax.persistence.PostPersist;
+import javax.persistence.PostRemove;
+import javax.persistence.PostUpdate;
+
+/**
+ * Entity listener of Player, Team and League, which tells RosterIndex that
+ * the roster changed.
+ */
+public class RosterListener {
+
+    @Inject
+    private RosterIndex index;
+
+    @PostPersist
+    @PostUpdate
+    @PostRemove
+    public void changed(Object entity) {
+        index.changed();
+    }
+}
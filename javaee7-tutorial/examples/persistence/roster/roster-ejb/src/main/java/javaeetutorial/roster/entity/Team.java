@@ -10,6 +10,7 @@ package javaeetutorial.roster.entity;
 import java.io.Serializable;
 import java.util.Collection;
 import javax.persistence.Entity;
+import javax.persistence.EntityListeners;
 import javax.persistence.Id;
 import javax.persistence.JoinColumn;
 import javax.persistence.JoinTable;
@@ -19,6 +20,7 @@ import javax.persistence.Table;
 
 
 @Entity
+@EntityListeners(RosterListener.class)
 @Table(name = "PERSISTENCE_ROSTER_TEAM")
 public class Team implements Serializable {
     private static final long serialVersionUID = 4797864229333271809L;
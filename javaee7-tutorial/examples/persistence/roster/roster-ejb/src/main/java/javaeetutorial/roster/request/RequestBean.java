@@ -8,10 +8,11 @@
 package javaeetutorial.roster.request;
 
 import java.io.Serializable;
-import java.util.ArrayList;
 import java.util.Collection;
+import java.util.HashMap;
 import java.util.Iterator;
 import java.util.List;
+import java.util.Map;
 import java.util.logging.Level;
 import java.util.logging.Logger;
 import javaeetutorial.roster.entity.League;
@@ -27,14 +28,16 @@ import javaeetutorial.roster.util.LeagueDetails;
 import javaeetutorial.roster.util.PlayerDetails;
 import javaeetutorial.roster.util.TeamDetails;
 import javax.annotation.PostConstruct;
+import javax.ejb.EJB;
 import javax.ejb.EJBException;
 import javax.ejb.Stateful;
 import javax.persistence.EntityManager;
 import javax.persistence.PersistenceContext;
-import javax.persistence.TypedQuery;
+import javax.persistence.criteria.CompoundSelection;
 import javax.persistence.criteria.CriteriaBuilder;
 import javax.persistence.criteria.CriteriaQuery;
 import javax.persistence.criteria.Join;
+import javax.persistence.criteria.Path;
 import javax.persistence.criteria.Predicate;
 import javax.persistence.criteria.Root;
 
@@ -51,6 +54,12 @@ public class RequestBean implements Request, Serializable {
     @PersistenceContext
     private EntityManager em;
     private CriteriaBuilder cb;
+    @EJB
+    private RosterIndex index;
+    /* Finder queries, built once with parameters and reused by this bean
+     * instance only; they are not serializable, so they are built again
+     * after passivation */
+    private transient Map<String, CriteriaQuery<?>> queries;
 
     @PostConstruct
     private void init() {
@@ -136,60 +145,71 @@ public class RequestBean implements Request, Serializable {
     @Override
     public List<PlayerDetails> getPlayersOfTeam(String teamId) {
         logger.info("getPlayersOfTeam");
-        List<PlayerDetails> playerList = null;
         try {
-            Team team = em.find(Team.class, teamId);
-            playerList = this.copyPlayersToDetails((List<Player>) team.getPlayers());
+            CriteriaQuery<PlayerDetails> cq = cachedQuery("getPlayersOfTeam");
+            if (cq == null) {
+                cq = cb.createQuery(PlayerDetails.class);
+                Root<Player> player = cq.from(Player.class);
+                Join<Player, Team> team = player.join(Player_.teams);
+
+                cq.where(cb.equal(team.get(Team_.id), cb.parameter(String.class, "teamId")));
+                cq.select(playerDetails(player));
+                cq = cacheQuery("getPlayersOfTeam", cq);
+            }
+            return em.createQuery(cq)
+                    .setParameter("teamId", teamId)
+                    .getResultList();
         } catch (Exception ex) {
             throw new EJBException(ex);
         }
-        return playerList;
     }
 
     @Override
     public List<TeamDetails> getTeamsOfLeague(String leagueId) {
         logger.info("getTeamsOfLeague");
-        List<TeamDetails> detailsList = new ArrayList<>();
-        Collection<Team> teams = null;
-
         try {
-            League league = em.find(League.class, leagueId);
-            teams = league.getTeams();
+            CriteriaQuery<TeamDetails> cq = cachedQuery("getTeamsOfLeague");
+            if (cq == null) {
+                cq = cb.createQuery(TeamDetails.class);
+                Root<Team> team = cq.from(Team.class);
+                Join<Team, League> league = team.join(Team_.league);
+
+                cq.where(cb.equal(league.get(League_.id), cb.parameter(String.class, "leagueId")));
+                cq.select(cb.construct(TeamDetails.class,
+                        team.get(Team_.id),
+                        team.get(Team_.name),
+                        team.get(Team_.city)));
+                cq = cacheQuery("getTeamsOfLeague", cq);
+            }
+            return em.createQuery(cq)
+                    .setParameter("leagueId", leagueId)
+                    .getResultList();
         } catch (Exception ex) {
             throw new EJBException(ex);
         }
-
-        Iterator<Team> i = teams.iterator();
-        while (i.hasNext()) {
-            Team team = (Team) i.next();
-            TeamDetails teamDetails = new TeamDetails(team.getId(),
-                    team.getName(),
-                    team.getCity());
-            detailsList.add(teamDetails);
-        }
-        return detailsList;
     }
 
     @Override
     public List<PlayerDetails> getPlayersByPosition(String position) {
         logger.info("getPlayersByPosition");
-        List<Player> players = null;
-
+        if (index.isEnabled()) {
+            return index.getPlayersByPosition(position);
+        }
         try {
-            CriteriaQuery<Player> cq = cb.createQuery(Player.class);
-            if (cq != null) {
+            CriteriaQuery<PlayerDetails> cq = cachedQuery("getPlayersByPosition");
+            if (cq == null) {
+                cq = cb.createQuery(PlayerDetails.class);
                 Root<Player> player = cq.from(Player.class);
 
-                // Get MetaModel from Root
-                //EntityType<Player> Player_ = player.getModel();
-
                 // set the where clause
-                cq.where(cb.equal(player.get(Player_.position), position));
-                cq.select(player);
-                TypedQuery<Player> q = em.createQuery(cq);
-                players = q.getResultList();
+                cq.where(cb.equal(player.get(Player_.position),
+                        cb.parameter(String.class, "position")));
+                cq.select(playerDetails(player));
+                cq = cacheQuery("getPlayersByPosition", cq);
             }
-            return copyPlayersToDetails(players);
+            return em.createQuery(cq)
+                    .setParameter("position", position)
+                    .getResultList();
         } catch (Exception ex) {
             throw new EJBException(ex);
         }
@@ -198,17 +218,16 @@ public class RequestBean implements Request, Serializable {
     @Override
     public List<PlayerDetails> getPlayersByHigherSalary(String name) {
         logger.info("getPlayersByHigherSalary");
-        List<Player> players = null;
-
+        if (index.isEnabled()) {
+            return index.getPlayersByHigherSalary(name);
+        }
         try {
-            CriteriaQuery<Player> cq = cb.createQuery(Player.class);
-            if (cq != null) {
+            CriteriaQuery<PlayerDetails> cq = cachedQuery("getPlayersByHigherSalary");
+            if (cq == null) {
+                cq = cb.createQuery(PlayerDetails.class);
                 Root<Player> player1 = cq.from(Player.class);
                 Root<Player> player2 = cq.from(Player.class);
 
-                // Get MetaModel from Root
-                //EntityType<Player> Player_ = player1.getModel();
-
                 // create a Predicate object that finds players with a salary
                 // greater than player1
                 Predicate gtPredicate = cb.greaterThan(
@@ -218,15 +237,16 @@ public class RequestBean implements Request, Serializable {
                 // the name parameter
                 Predicate equalPredicate = cb.equal(
                         player2.get(Player_.name),
-                        name);
+                        cb.parameter(String.class, "name"));
                 // set the where clause with the predicates
                 cq.where(gtPredicate, equalPredicate);
                 // set the select clause, and return only unique entries
-                cq.select(player1).distinct(true);
-                TypedQuery<Player> q = em.createQuery(cq);
-                players = q.getResultList();
+                cq.select(playerDetails(player1)).distinct(true);
+                cq = cacheQuery("getPlayersByHigherSalary", cq);
             }
-            return copyPlayersToDetails(players);
+            return em.createQuery(cq)
+                    .setParameter("name", name)
+                    .getResultList();
         } catch (Exception ex) {
             throw new EJBException(ex);
         }
@@ -235,27 +255,27 @@ public class RequestBean implements Request, Serializable {
     @Override
     public List<PlayerDetails> getPlayersBySalaryRange(double low, double high) {
         logger.info("getPlayersBySalaryRange");
-        List<Player> players = null;
-
+        if (index.isEnabled()) {
+            return index.getPlayersBySalaryRange(low, high);
+        }
         try {
-            CriteriaQuery<Player> cq = cb.createQuery(Player.class);
-            if (cq != null) {
+            CriteriaQuery<PlayerDetails> cq = cachedQuery("getPlayersBySalaryRange");
+            if (cq == null) {
+                cq = cb.createQuery(PlayerDetails.class);
                 Root<Player> player = cq.from(Player.class);
 
-                // Get MetaModel from Root
-                //EntityType<Player> Player_ = player.getModel();
-
                 // set the where clause
-                cq.where(cb.between(player.get(
-                        Player_.salary),
-                        low,
-                        high));
+                cq.where(cb.between(player.get(Player_.salary),
+                        cb.parameter(Double.class, "low"),
+                        cb.parameter(Double.class, "high")));
                 // set the select clause
-                cq.select(player).distinct(true);
-                TypedQuery<Player> q = em.createQuery(cq);
-                players = q.getResultList();
+                cq.select(playerDetails(player)).distinct(true);
+                cq = cacheQuery("getPlayersBySalaryRange", cq);
             }
-            return copyPlayersToDetails(players);
+            return em.createQuery(cq)
+                    .setParameter("low", low)
+                    .setParameter("high", high)
+                    .getResultList();
         } catch (Exception ex) {
             throw new EJBException(ex);
         }
@@ -264,25 +284,22 @@ public class RequestBean implements Request, Serializable {
     @Override
     public List<PlayerDetails> getPlayersByLeagueId(String leagueId) {
         logger.info("getPlayersByLeagueId");
-        List<Player> players = null;
-
         try {
-            CriteriaQuery<Player> cq = cb.createQuery(Player.class);
-            if (cq != null) {
+            CriteriaQuery<PlayerDetails> cq = cachedQuery("getPlayersByLeagueId");
+            if (cq == null) {
+                cq = cb.createQuery(PlayerDetails.class);
                 Root<Player> player = cq.from(Player.class);
                 Join<Player, Team> team = player.join(Player_.teams);
                 Join<Team, League> league = team.join(Team_.league);
 
-                // Get MetaModel from Root
-                //EntityType<Player> Player_ = player.getModel();
-
                 // set the where clause
-                cq.where(cb.equal(league.get(League_.id), leagueId));
-                cq.select(player).distinct(true);
-                TypedQuery<Player> q = em.createQuery(cq);
-                players = q.getResultList();
+                cq.where(cb.equal(league.get(League_.id), cb.parameter(String.class, "leagueId")));
+                cq.select(playerDetails(player)).distinct(true);
+                cq = cacheQuery("getPlayersByLeagueId", cq);
             }
-            return copyPlayersToDetails(players);
+            return em.createQuery(cq)
+                    .setParameter("leagueId", leagueId)
+                    .getResultList();
         } catch (Exception ex) {
             throw new EJBException(ex);
         }
@@ -290,26 +307,26 @@ public class RequestBean implements Request, Serializable {
 
     @Override
     public List<PlayerDetails> getPlayersBySport(String sport) {
-        logger.info("getPlayersByLeagueId");
-        List<Player> players = null;
-
+        logger.info("getPlayersBySport");
+        if (index.isEnabled()) {
+            return index.getPlayersBySport(sport);
+        }
         try {
-            CriteriaQuery<Player> cq = cb.createQuery(Player.class);
-            if (cq != null) {
+            CriteriaQuery<PlayerDetails> cq = cachedQuery("getPlayersBySport");
+            if (cq == null) {
+                cq = cb.createQuery(PlayerDetails.class);
                 Root<Player> player = cq.from(Player.class);
                 Join<Player, Team> team = player.join(Player_.teams);
                 Join<Team, League> league = team.join(Team_.league);
 
-                // Get MetaModel from Root
-                //EntityType<Player> Player_ = player.getModel();
-
                 // set the where clause
-                cq.where(cb.equal(league.get(League_.sport), sport));
-                cq.select(player).distinct(true);
-                TypedQuery<Player> q = em.createQuery(cq);
-                players = q.getResultList();
+                cq.where(cb.equal(league.get(League_.sport), cb.parameter(String.class, "sport")));
+                cq.select(playerDetails(player)).distinct(true);
+                cq = cacheQuery("getPlayersBySport", cq);
             }
-            return copyPlayersToDetails(players);
+            return em.createQuery(cq)
+                    .setParameter("sport", sport)
+                    .getResultList();
         } catch (Exception ex) {
             throw new EJBException(ex);
         }
@@ -318,24 +335,24 @@ public class RequestBean implements Request, Serializable {
     @Override
     public List<PlayerDetails> getPlayersByCity(String city) {
         logger.info("getPlayersByCity");
-        List<Player> players = null;
-
+        if (index.isEnabled()) {
+            return index.getPlayersByCity(city);
+        }
         try {
-            CriteriaQuery<Player> cq = cb.createQuery(Player.class);
-            if (cq != null) {
+            CriteriaQuery<PlayerDetails> cq = cachedQuery("getPlayersByCity");
+            if (cq == null) {
+                cq = cb.createQuery(PlayerDetails.class);
                 Root<Player> player = cq.from(Player.class);
                 Join<Player, Team> team = player.join(Player_.teams);
 
-                // Get MetaModel from Root
-                //EntityType<Player> Player_ = player.getModel();
-
                 // set the where clause
-                cq.where(cb.equal(team.get(Team_.city), city));
-                cq.select(player).distinct(true);
-                TypedQuery<Player> q = em.createQuery(cq);
-                players = q.getResultList();
+                cq.where(cb.equal(team.get(Team_.city), cb.parameter(String.class, "city")));
+                cq.select(playerDetails(player)).distinct(true);
+                cq = cacheQuery("getPlayersByCity", cq);
             }
-            return copyPlayersToDetails(players);
+            return em.createQuery(cq)
+                    .setParameter("city", city)
+                    .getResultList();
         } catch (Exception ex) {
             throw new EJBException(ex);
         }
@@ -344,18 +361,16 @@ public class RequestBean implements Request, Serializable {
     @Override
     public List<PlayerDetails> getAllPlayers() {
         logger.info("getAllPlayers");
-        List<Player> players = null;
-
         try {
-            CriteriaQuery<Player> cq = cb.createQuery(Player.class);
-            if (cq != null) {
+            CriteriaQuery<PlayerDetails> cq = cachedQuery("getAllPlayers");
+            if (cq == null) {
+                cq = cb.createQuery(PlayerDetails.class);
                 Root<Player> player = cq.from(Player.class);
 
-                cq.select(player);
-                TypedQuery<Player> q = em.createQuery(cq);
-                players = q.getResultList();
+                cq.select(playerDetails(player));
+                cq = cacheQuery("getAllPlayers", cq);
             }
-            return copyPlayersToDetails(players);
+            return em.createQuery(cq).getResultList();
         } catch (Exception ex) {
             throw new EJBException(ex);
         }
@@ -364,23 +379,18 @@ public class RequestBean implements Request, Serializable {
     @Override
     public List<PlayerDetails> getPlayersNotOnTeam() {
         logger.info("getPlayersNotOnTeam");
-        List<Player> players = null;
-
         try {
-            CriteriaQuery<Player> cq = cb.createQuery(Player.class);
-            if (cq != null) {
+            CriteriaQuery<PlayerDetails> cq = cachedQuery("getPlayersNotOnTeam");
+            if (cq == null) {
+                cq = cb.createQuery(PlayerDetails.class);
                 Root<Player> player = cq.from(Player.class);
 
-                // Get MetaModel from Root
-                //EntityType<Player> Player_ = player.getModel();
-
                 // set the where clause
                 cq.where(cb.isEmpty(player.get(Player_.teams)));
-                cq.select(player).distinct(true);
-                TypedQuery<Player> q = em.createQuery(cq);
-                players = q.getResultList();
+                cq.select(playerDetails(player)).distinct(true);
+                cq = cacheQuery("getPlayersNotOnTeam", cq);
             }
-            return copyPlayersToDetails(players);
+            return em.createQuery(cq).getResultList();
         } catch (Exception ex) {
             throw new EJBException(ex);
         }
@@ -389,24 +399,22 @@ public class RequestBean implements Request, Serializable {
     @Override
     public List<PlayerDetails> getPlayersByPositionAndName(String position, String name) {
         logger.info("getPlayersByPositionAndName");
-        List<Player> players = null;
-
         try {
-            CriteriaQuery<Player> cq = cb.createQuery(Player.class);
-            if (cq != null) {
+            CriteriaQuery<PlayerDetails> cq = cachedQuery("getPlayersByPositionAndName");
+            if (cq == null) {
+                cq = cb.createQuery(PlayerDetails.class);
                 Root<Player> player = cq.from(Player.class);
 
-                // Get MetaModel from Root
-                //EntityType<Player> Player_ = player.getModel();
-
                 // set the where clause
-                cq.where(cb.equal(player.get(Player_.position), position),
-                        cb.equal(player.get(Player_.name), name));
-                cq.select(player).distinct(true);
-                TypedQuery<Player> q = em.createQuery(cq);
-                players = q.getResultList();
+                cq.where(cb.equal(player.get(Player_.position), cb.parameter(String.class, "position")),
+                        cb.equal(player.get(Player_.name), cb.parameter(String.class, "name")));
+                cq.select(playerDetails(player)).distinct(true);
+                cq = cacheQuery("getPlayersByPositionAndName", cq);
             }
-            return copyPlayersToDetails(players);
+            return em.createQuery(cq)
+                    .setParameter("position", position)
+                    .setParameter("name", name)
+                    .getResultList();
         } catch (Exception ex) {
             throw new EJBException(ex);
         }
@@ -415,77 +423,55 @@ public class RequestBean implements Request, Serializable {
     @Override
     public List<LeagueDetails> getLeaguesOfPlayer(String playerId) {
         logger.info("getLeaguesOfPlayer");
-        List<LeagueDetails> detailsList = new ArrayList<>();
-        List<League> leagues = null;
-
         try {
-            CriteriaQuery<League> cq = cb.createQuery(League.class);
-            if (cq != null) {
+            CriteriaQuery<LeagueDetails> cq = cachedQuery("getLeaguesOfPlayer");
+            if (cq == null) {
+                cq = cb.createQuery(LeagueDetails.class);
                 Root<League> league = cq.from(League.class);
-                //EntityType<League> League_ = league.getModel();
                 Join<League, Team> team = league.join(League_.teams);
-                //EntityType<Team> Team_ = team.getModel();
                 Join<Team, Player> player = team.join(Team_.players);
 
-                cq.where(cb.equal(player.get(Player_.id), playerId));
-                cq.select(league).distinct(true);
-                TypedQuery<League> q = em.createQuery(cq);
-                leagues = q.getResultList();
+                cq.where(cb.equal(player.get(Player_.id), cb.parameter(String.class, "playerId")));
+                cq.select(cb.construct(LeagueDetails.class,
+                        league.get(League_.id),
+                        league.get(League_.name),
+                        league.get(League_.sport))).distinct(true);
+                cq = cacheQuery("getLeaguesOfPlayer", cq);
+            }
+            List<LeagueDetails> leagues = em.createQuery(cq)
+                    .setParameter("playerId", playerId)
+                    .getResultList();
+            if (leagues.isEmpty()) {
+                logger.log(Level.WARNING, "No leagues found for player with ID {0}.", playerId);
             }
+            return leagues;
         } catch (Exception ex) {
             throw new EJBException(ex);
         }
-
-        if (leagues == null) {
-            logger.log(Level.WARNING, "No leagues found for player with ID {0}.", playerId);
-            return null;
-        } else {
-            Iterator<League> i = leagues.iterator();
-            while (i.hasNext()) {
-                League league = (League) i.next();
-                LeagueDetails leagueDetails = new LeagueDetails(league.getId(),
-                        league.getName(),
-                        league.getSport());
-                detailsList.add(leagueDetails);
-            }
-
-        }
-        return detailsList;
     }
 
     @Override
     public List<String> getSportsOfPlayer(String playerId) {
         logger.info("getSportsOfPlayer");
-        List<String> sports = new ArrayList<>();
-
         try {
-            CriteriaQuery<String> cq = cb.createQuery(String.class);
-            if (cq != null) {
+            CriteriaQuery<String> cq = cachedQuery("getSportsOfPlayer");
+            if (cq == null) {
+                cq = cb.createQuery(String.class);
                 Root<Player> player = cq.from(Player.class);
                 Join<Player, Team> team = player.join(Player_.teams);
                 Join<Team, League> league = team.join(Team_.league);
 
-                // Get MetaModel from Root
-                //EntityType<Player> Player_ = player.getModel();
-
                 // set the where clause
-                cq.where(cb.equal(player.get(Player_.id), playerId));
+                cq.where(cb.equal(player.get(Player_.id), cb.parameter(String.class, "playerId")));
                 cq.select(league.get(League_.sport)).distinct(true);
-                TypedQuery<String> q = em.createQuery(cq);
-                sports = q.getResultList();
+                cq = cacheQuery("getSportsOfPlayer", cq);
             }
-
-//        Player player = em.find(Player.class, playerId);
-//        Iterator<Team> i = player.getTeams().iterator();
-//        while (i.hasNext()) {
-//            Team team = i.next();
-//            League league = team.getLeague();
-//            sports.add(league.getSport());
-//        }
+            return em.createQuery(cq)
+                    .setParameter("playerId", playerId)
+                    .getResultList();
         } catch (Exception ex) {
             throw new EJBException(ex);
         }
-        return sports;
     }
 
     @Override
@@ -591,17 +577,26 @@ public class RequestBean implements Request, Serializable {
         return leagueDetails;
     }
 
-    private List<PlayerDetails> copyPlayersToDetails(List<Player> players) {
-        List<PlayerDetails> detailsList = new ArrayList<>();
-        Iterator<Player> i = players.iterator();
-        while (i.hasNext()) {
-            Player player = (Player) i.next();
-            PlayerDetails playerDetails = new PlayerDetails(player.getId(),
-                    player.getName(),
-                    player.getPosition(),
-                    player.getSalary());
-            detailsList.add(playerDetails);
+    /* Selects the columns of a player straight into a PlayerDetails */
+    private CompoundSelection<PlayerDetails> playerDetails(Path<Player> player) {
+        return cb.construct(PlayerDetails.class,
+                player.get(Player_.id),
+                player.get(Player_.name),
+                player.get(Player_.position),
+                player.get(Player_.salary));
+    }
+
+    @SuppressWarnings("unchecked")
+    private <T> CriteriaQuery<T> cachedQuery(String finder) {
+        return queries == null ? null : (CriteriaQuery<T>) queries.get(finder);
+    }
+
+    /* Cached queries must not be changed once cached */
+    private <T> CriteriaQuery<T> cacheQuery(String finder, CriteriaQuery<T> cq) {
+        if (queries == null) {
+            queries = new HashMap<>();
         }
-        return detailsList;
+        queries.put(finder, cq);
+        return cq;
     }
 }
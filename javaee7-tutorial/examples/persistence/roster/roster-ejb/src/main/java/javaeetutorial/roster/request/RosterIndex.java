@@ -0,0 +1,271 @@
+/**
+ * Copyright (c) 2014 Oracle and/or its affiliates. All rights reserved.
+ *
+ * You may not modify, use, reproduce, or distribute this software except in
+ * compliance with  the terms of the License at:
+ * http://java.net/projects/javaeetutorial/pages/BerkeleyLicense
+ */
+package javaeetutorial.roster.request;
+
+import java.util.ArrayList;
+import java.util.BitSet;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+import javaeetutorial.roster.entity.League;
+import javaeetutorial.roster.entity.League_;
+import javaeetutorial.roster.entity.Player;
+import javaeetutorial.roster.entity.Player_;
+import javaeetutorial.roster.entity.Team;
+import javaeetutorial.roster.entity.Team_;
+import javaeetutorial.roster.util.PlayerDetails;
+import javax.annotation.PostConstruct;
+import javax.annotation.Resource;
+import javax.ejb.ConcurrencyManagement;
+import javax.ejb.ConcurrencyManagementType;
+import javax.ejb.Singleton;
+import javax.persistence.EntityManager;
+import javax.persistence.PersistenceContext;
+import javax.persistence.Tuple;
+import javax.persistence.criteria.CriteriaBuilder;
+import javax.persistence.criteria.CriteriaQuery;
+import javax.persistence.criteria.Join;
+import javax.persistence.criteria.Root;
+import javax.transaction.Synchronization;
+import javax.transaction.TransactionSynchronizationRegistry;
+
+/**
+ * Optional in-memory read model of the players, used by RequestBean for
+ * the salary, position, city and sport finders when the
+ * roster.index.enabled system property is true.
+ *
+ * Players are kept sorted by salary next to a double[] of their salaries,
+ * so a salary range is two binary searches. Positions, cities and sports
+ * map to a BitSet of the players that match. The model is rebuilt with two
+ * queries the first time it is read after a Player, Team or League was
+ * changed; RosterListener reports the changes, and the model is marked
+ * stale only once the transaction has completed.
+ *
+ * @author ian
+ */
+@Singleton
+@ConcurrencyManagement(ConcurrencyManagementType.BEAN)
+public class RosterIndex {
+
+    private static final Logger logger =
+            Logger.getLogger("roster.request.RosterIndex");
+    @PersistenceContext
+    private EntityManager em;
+    @Resource
+    private TransactionSynchronizationRegistry registry;
+    private boolean enabled;
+    private final AtomicLong version = new AtomicLong();
+    private volatile Snapshot snapshot;
+
+    @PostConstruct
+    private void init() {
+        enabled = Boolean.getBoolean("roster.index.enabled");
+    }
+
+    public boolean isEnabled() {
+        return enabled;
+    }
+
+    /**
+     * Called when a roster entity changes. The model is rebuilt on the next
+     * read after the current transaction completes.
+     */
+    public void changed() {
+        if (registry.getTransactionKey() == null) {
+            version.incrementAndGet();
+            return;
+        }
+        if (registry.getResource(RosterIndex.class) == null) {
+            registry.putResource(RosterIndex.class, Boolean.TRUE);
+            registry.registerInterposedSynchronization(new Synchronization() {
+                @Override
+                public void beforeCompletion() {
+                }
+
+                @Override
+                public void afterCompletion(int status) {
+                    version.incrementAndGet();
+                }
+            });
+        }
+    }
+
+    public List<PlayerDetails> getPlayersBySalaryRange(double low, double high) {
+        Snapshot s = snapshot();
+        return s.range(lowerBound(s.salaries, low), upperBound(s.salaries, high));
+    }
+
+    /**
+     * @param name a player name
+     * @return the players paid more than the lowest paid player of this name
+     */
+    public List<PlayerDetails> getPlayersByHigherSalary(String name) {
+        Snapshot s = snapshot();
+        Double salary = s.lowestSalaryByName.get(name);
+        if (salary == null) {
+            return new ArrayList<>();
+        }
+        return s.range(upperBound(s.salaries, salary), s.salaries.length);
+    }
+
+    public List<PlayerDetails> getPlayersByPosition(String position) {
+        Snapshot s = snapshot();
+        return s.select(s.byPosition.get(position));
+    }
+
+    public List<PlayerDetails> getPlayersByCity(String city) {
+        Snapshot s = snapshot();
+        return s.select(s.byCity.get(city));
+    }
+
+    public List<PlayerDetails> getPlayersBySport(String sport) {
+        Snapshot s = snapshot();
+        return s.select(s.bySport.get(sport));
+    }
+
+    private Snapshot snapshot() {
+        Snapshot s = snapshot;
+        if (s == null || s.version != version.get()) {
+            s = rebuild();
+        }
+        return s;
+    }
+
+    private synchronized Snapshot rebuild() {
+        long current = version.get();
+        if (snapshot != null && snapshot.version == current) {
+            return snapshot;
+        }
+        CriteriaBuilder cb = em.getCriteriaBuilder();
+
+        CriteriaQuery<PlayerDetails> cq = cb.createQuery(PlayerDetails.class);
+        Root<Player> player = cq.from(Player.class);
+        cq.select(cb.construct(PlayerDetails.class,
+                player.get(Player_.id),
+                player.get(Player_.name),
+                player.get(Player_.position),
+                player.get(Player_.salary)));
+        List<PlayerDetails> players = new ArrayList<>(em.createQuery(cq).getResultList());
+
+        CriteriaQuery<Tuple> tq = cb.createTupleQuery();
+        Root<Player> member = tq.from(Player.class);
+        Join<Player, Team> team = member.join(Player_.teams);
+        Join<Team, League> league = team.join(Team_.league);
+        tq.multiselect(member.get(Player_.id), team.get(Team_.city), league.get(League_.sport))
+                .distinct(true);
+        List<Tuple> memberships = em.createQuery(tq).getResultList();
+
+        Snapshot s = new Snapshot(current, players, memberships);
+        snapshot = s;
+        logger.log(Level.INFO, "Roster index rebuilt with {0} players", players.size());
+        return s;
+    }
+
+    /* First index whose salary is >= key */
+    private static int lowerBound(double[] salaries, double key) {
+        int low = 0;
+        int high = salaries.length;
+        while (low < high) {
+            int mid = (low + high) >>> 1;
+            if (salaries[mid] < key) {
+                low = mid + 1;
+            } else {
+                high = mid;
+            }
+        }
+        return low;
+    }
+
+    /* First index whose salary is > key */
+    private static int upperBound(double[] salaries, double key) {
+        int low = 0;
+        int high = salaries.length;
+        while (low < high) {
+            int mid = (low + high) >>> 1;
+            if (salaries[mid] <= key) {
+                low = mid + 1;
+            } else {
+                high = mid;
+            }
+        }
+        return low;
+    }
+
+    /* Immutable state of the index, replaced as a whole */
+    private static final class Snapshot {
+
+        private final long version;
+        private final PlayerDetails[] players;
+        private final double[] salaries;
+        private final Map<String, Double> lowestSalaryByName = new HashMap<>();
+        private final Map<String, BitSet> byPosition = new HashMap<>();
+        private final Map<String, BitSet> byCity = new HashMap<>();
+        private final Map<String, BitSet> bySport = new HashMap<>();
+
+        Snapshot(long version, List<PlayerDetails> list, List<Tuple> memberships) {
+            this.version = version;
+            Collections.sort(list, new Comparator<PlayerDetails>() {
+                @Override
+                public int compare(PlayerDetails p1, PlayerDetails p2) {
+                    return Double.compare(p1.getSalary(), p2.getSalary());
+                }
+            });
+            players = list.toArray(new PlayerDetails[list.size()]);
+            salaries = new double[players.length];
+            Map<String, Integer> slots = new HashMap<>();
+            for (int i = 0; i < players.length; i++) {
+                PlayerDetails player = players[i];
+                salaries[i] = player.getSalary();
+                slots.put(player.getId(), i);
+                if (!lowestSalaryByName.containsKey(player.getName())) {
+                    lowestSalaryByName.put(player.getName(), player.getSalary());
+                }
+                set(byPosition, player.getPosition(), i);
+            }
+            for (Tuple membership : memberships) {
+                Integer slot = slots.get(membership.get(0, String.class));
+                if (slot != null) {
+                    set(byCity, membership.get(1, String.class), slot);
+                    set(bySport, membership.get(2, String.class), slot);
+                }
+            }
+        }
+
+        private static void set(Map<String, BitSet> index, String key, int slot) {
+            BitSet bits = index.get(key);
+            if (bits == null) {
+                bits = new BitSet();
+                index.put(key, bits);
+            }
+            bits.set(slot);
+        }
+
+        List<PlayerDetails> range(int from, int to) {
+            List<PlayerDetails> result = new ArrayList<>(Math.max(0, to - from));
+            for (int i = from; i < to; i++) {
+                result.add(players[i]);
+            }
+            return result;
+        }
+
+        List<PlayerDetails> select(BitSet bits) {
+            List<PlayerDetails> result = new ArrayList<>();
+            if (bits != null) {
+                for (int i = bits.nextSetBit(0); i >= 0; i = bits.nextSetBit(i + 1)) {
+                    result.add(players[i]);
+                }
+            }
+            return result;
+        }
+    }
+}
@@ -14,7 +14,8 @@ import javax.inject.Named;
 @Named
 public class BotBean {
     
-    /* Respond to a message from the chat */
+    /* Respond to a message from the chat.
+     * Returns at once, BotResponder delays the delivery of the answer. */
     public String respond(String msg) {
         String response;           
         
@@ -36,9 +37,6 @@ public class BotBean {
             response += "You can ask me how I'm doing today; how old I am; or ";
             response += "what my favorite color is.";
         }
-        try {
-            Thread.sleep(1200);
-        } catch (InterruptedException ex) { }
         return response;
     }
 }
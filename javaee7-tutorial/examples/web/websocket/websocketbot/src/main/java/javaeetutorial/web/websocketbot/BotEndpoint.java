@@ -12,20 +12,14 @@ import javaeetutorial.web.websocketbot.encoders.ChatMessageEncoder;
 import javaeetutorial.web.websocketbot.encoders.InfoMessageEncoder;
 import javaeetutorial.web.websocketbot.encoders.JoinMessageEncoder;
 import javaeetutorial.web.websocketbot.messages.ChatMessage;
-import javaeetutorial.web.websocketbot.messages.UsersMessage;
 import javaeetutorial.web.websocketbot.messages.JoinMessage;
-import javaeetutorial.web.websocketbot.messages.InfoMessage;
 import javaeetutorial.web.websocketbot.decoders.MessageDecoder;
 import javaeetutorial.web.websocketbot.messages.Message;
-import java.io.IOException;
-import java.util.ArrayList;
+import javaeetutorial.web.websocketbot.room.ChatRoom;
 import java.util.List;
 import java.util.logging.Level;
 import java.util.logging.Logger;
-import javax.annotation.Resource;
-import javax.enterprise.concurrent.ManagedExecutorService;
 import javax.inject.Inject;
-import javax.websocket.EncodeException;
 import javax.websocket.OnClose;
 import javax.websocket.OnError;
 import javax.websocket.OnMessage;
@@ -43,15 +37,16 @@ import javax.websocket.server.ServerEndpoint;
 /* There is a BotEndpoint instance per connetion */
 public class BotEndpoint {
     private static final Logger logger = Logger.getLogger("BotEndpoint");
-    /* Bot functionality bean */
+    /* Chat room shared by all connections */
     @Inject
-    private BotBean botbean;
-    /* Executor service for asynchronous processing */
-    @Resource(name="comp/DefaultManagedExecutorService")
-    private ManagedExecutorService mes;
+    private ChatRoom room;
+    /* Bot functionality, answers asynchronously */
+    @Inject
+    private BotResponder responder;
     
     @OnOpen
     public void openConnection(Session session) {
+        room.open(session);
         logger.log(Level.INFO, "Connection opened.");
     }
     
@@ -65,11 +60,7 @@ public class BotEndpoint {
             session.getUserProperties().put("name", jmsg.getName());
             session.getUserProperties().put("active", true);
             logger.log(Level.INFO, "Received: {0}", jmsg.toString());
-            sendAll(session, new InfoMessage(jmsg.getName() + 
-                    " has joined the chat"));
-            sendAll(session, new ChatMessage("Duke", jmsg.getName(),
-                    "Hi there!!"));
-            sendAll(session, new UsersMessage(this.getUserList(session)));
+            room.join(session, jmsg.getName());
             
         } else if (msg instanceof ChatMessage) {
             /* Forward the message to everybody */
@@ -78,10 +69,9 @@ public class BotEndpoint {
             sendAll(session, cmsg);
             if (cmsg.getTarget().compareTo("Duke") == 0) {
                 /* The bot replies to the message */
-                mes.submit(new Runnable() {
+                responder.ask(cmsg.getMessage(), new BotResponder.Callback() {
                     @Override
-                    public void run() {
-                        String resp = botbean.respond(cmsg.getMessage());
+                    public void onResponse(String resp) {
                         sendAll(session, new ChatMessage("Duke", 
                                 cmsg.getName(), resp));
                     }
@@ -94,11 +84,7 @@ public class BotEndpoint {
     public void closedConnection(Session session) {
         /* Notify everybody */
         session.getUserProperties().put("active", false);
-        if (session.getUserProperties().containsKey("name")) {
-            String name = session.getUserProperties().get("name").toString();
-            sendAll(session, new InfoMessage(name + " has left the chat"));
-            sendAll(session, new UsersMessage(this.getUserList(session)));
-        }
+        room.close(session);
         logger.log(Level.INFO, "Connection closed.");
     }
     
@@ -108,28 +94,13 @@ public class BotEndpoint {
     }
     
     /* Forward a message to all connected clients
-     * The endpoint figures what encoder to use based on the message type */
-    public synchronized void sendAll(Session session, Object msg) {
-        try {
-            for (Session s : session.getOpenSessions()) {
-                if (s.isOpen()) {
-                    s.getBasicRemote().sendObject(msg);
-                    logger.log(Level.INFO, "Sent: {0}", msg.toString());
-                }
-            }
-        } catch (IOException | EncodeException e) {
-            logger.log(Level.INFO, e.toString());
-        }   
+     * The room encodes the message once and queues it for every session */
+    public void sendAll(Session session, Object msg) {
+        room.broadcast(msg);
     }
     
-    /* Returns the list of users from the properties of all open sessions */
+    /* Returns the list of users kept by the chat room */
     public List<String> getUserList(Session session) {
-        List<String> users = new ArrayList<>();
-        users.add("Duke");
-        for (Session s : session.getOpenSessions()) {
-            if (s.isOpen() && (boolean) s.getUserProperties().get("active"))
-                users.add(s.getUserProperties().get("name").toString());
-        }
-        return users;
+        return room.getUserList();
     }
 }
@@ -0,0 +1,138 @@
+/**
+ * Copyright (c) 2014 Oracle and/or its affiliates. All rights reserved.
+ *
+ * You may not modify, use, reproduce, or distribute this software except in
+ * compliance with  the terms of the License at:
+ * http://java.net/projects/javaeetutorial/pages/BerkeleyLicense
+ */
+package javaeetutorial.web.websocketbot;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+import javax.annotation.Resource;
+import javax.enterprise.concurrent.ManagedScheduledExecutorService;
+import javax.enterprise.context.ApplicationScoped;
+import javax.inject.Inject;
+
+/* Asynchronous front end for the bot.
+ * The answer is computed right away and its delivery is scheduled
+ * RESPONSE_DELAY_MS later, so no thread sleeps while Duke "thinks".
+ * Answers are cached by normalized question, and identical questions
+ * asked while one is already scheduled share that scheduled delivery. */
+@ApplicationScoped
+public class BotResponder {
+    private static final Logger logger = Logger.getLogger("BotResponder");
+    /* How long Duke takes to answer */
+    public static final long RESPONSE_DELAY_MS = 1200;
+    /* How long a cached answer is used */
+    public static final long CACHE_TTL_MS = TimeUnit.HOURS.toMillis(1);
+    public static final int CACHE_SIZE = 1000;
+    /* Answer given when the question cannot be answered or scheduled */
+    public static final String FALLBACK_RESPONSE =
+            "Sorry, I can't answer right now. Please ask me again later.";
+
+    /* Receives the answer to a question */
+    public interface Callback {
+        public void onResponse(String response);
+    }
+
+    @Inject
+    private BotBean botbean;
+    @Resource(name="comp/DefaultManagedScheduledExecutorService")
+    private ManagedScheduledExecutorService mses;
+
+    /* Scheduled questions and the callbacks waiting for them, by key */
+    private final Map<String, List<Callback>> inFlight = new HashMap<>();
+    /* Least recently used answers, by key */
+    private final Map<String, CachedResponse> cache =
+            new LinkedHashMap<String, CachedResponse>(64, 0.75f, true) {
+                @Override
+                protected boolean removeEldestEntry(
+                        Map.Entry<String, CachedResponse> eldest) {
+                    return size() > CACHE_SIZE;
+                }
+            };
+
+    /* Answer the question later through the callback, never blocks */
+    public void ask(String question, Callback callback) {
+        final String key = normalize(question);
+        synchronized (inFlight) {
+            List<Callback> waiting = inFlight.get(key);
+            if (waiting != null) {
+                waiting.add(callback);
+                return;
+            }
+            waiting = new ArrayList<>();
+            waiting.add(callback);
+            inFlight.put(key, waiting);
+        }
+        try {
+            final String response = lookup(key);
+            mses.schedule(new Runnable() {
+                @Override
+                public void run() {
+                    deliver(key, response);
+                }
+            }, RESPONSE_DELAY_MS, TimeUnit.MILLISECONDS);
+        } catch (RuntimeException e) {
+            /* Nothing will deliver the answer, free the waiting callbacks */
+            logger.log(Level.WARNING, "Cannot answer {0}: {1}",
+                    new Object[]{key, e.toString()});
+            deliver(key, FALLBACK_RESPONSE);
+        }
+    }
+
+    /* Lower case, no question marks, single spaces */
+    public static String normalize(String question) {
+        return question.toLowerCase().replaceAll("\\?", "")
+                .trim().replaceAll("\\s+", " ");
+    }
+
+    /* Returns the cached answer or asks the bot */
+    private String lookup(String key) {
+        long now = System.currentTimeMillis();
+        synchronized (cache) {
+            CachedResponse cached = cache.get(key);
+            if (cached != null && cached.expires > now)
+                return cached.response;
+        }
+        String response = botbean.respond(key);
+        synchronized (cache) {
+            cache.put(key, new CachedResponse(response, now + CACHE_TTL_MS));
+        }
+        return response;
+    }
+
+    /* Hand the answer to everybody who asked while it was scheduled */
+    private void deliver(String key, String response) {
+        List<Callback> waiting;
+        synchronized (inFlight) {
+            waiting = inFlight.remove(key);
+        }
+        if (waiting == null)
+            return;
+        for (Callback callback : waiting) {
+            try {
+                callback.onResponse(response);
+            } catch (RuntimeException e) {
+                logger.log(Level.INFO, e.toString());
+            }
+        }
+    }
+
+    private static class CachedResponse {
+        private final String response;
+        private final long expires;
+
+        private CachedResponse(String response, long expires) {
+            this.response = response;
+            this.expires = expires;
+        }
+    }
+}
@@ -8,15 +8,13 @@
 package javaeetutorial.web.websocketbot.decoders;
 
 import java.io.StringReader;
-import java.util.Arrays;
-import java.util.HashMap;
-import java.util.Map;
-import java.util.Set;
 import javaeetutorial.web.websocketbot.messages.ChatMessage;
 import javaeetutorial.web.websocketbot.messages.JoinMessage;
 import javaeetutorial.web.websocketbot.messages.Message;
 import javax.json.Json;
+import javax.json.JsonException;
 import javax.json.stream.JsonParser;
+import javax.json.stream.JsonParserFactory;
 import javax.websocket.DecodeException;
 import javax.websocket.Decoder;
 import javax.websocket.EndpointConfig;
@@ -25,10 +23,20 @@ import javax.websocket.EndpointConfig;
  * For example, the incoming message
  * {"type":"chat","name":"Peter","target":"Duke","message":"How are you?"}
  * is decoded as (new ChatMessage("Peter", "Duke", "How are you?"))
+ *
+ * The fields are read straight from the parser events in a single pass.
+ * The container creates a decoder for each session and calls willDecode
+ * then decode for each message, so the message built by a successful
+ * willDecode is kept in this instance and returned by the decode call that
+ * follows it for the same string; the text is parsed only once.
  */
 public class MessageDecoder implements Decoder.Text<Message> {
-    /* Stores the name-value pairs from a JSON message as a Map */
-    private Map<String,String> messageMap;
+    /* Looking up the JSON provider is expensive, do it once */
+    private static final JsonParserFactory parserFactory =
+            Json.createParserFactory(null);
+    /* Last string accepted by willDecode and its message */
+    private String lastString;
+    private Message lastMessage;
 
     @Override
     public void init(EndpointConfig ec) { }
@@ -39,54 +47,95 @@ public class MessageDecoder implements Decoder.Text<Message> {
     /* Create a new Message object if the message can be decoded */
     @Override
     public Message decode(String string) throws DecodeException {
-        Message msg = null;
-        if (willDecode(string)) {
-            switch (messageMap.get("type")) {
-                case "join":
-                    msg = new JoinMessage(messageMap.get("name"));
-                    break;
-                case "chat":
-                    msg = new ChatMessage(messageMap.get("name"),
-                                          messageMap.get("target"),
-                                          messageMap.get("message"));
-            }
+        Message msg;
+        if (lastString != null && lastString.equals(string)) {
+            msg = lastMessage;
         } else {
-            throw new DecodeException(string, "[Message] Can't decode.");
+            msg = parse(string);
         }
+        lastString = null;
+        lastMessage = null;
+        if (msg == null)
+            throw new DecodeException(string, "[Message] Can't decode.");
         return msg;
     }
     
-    /* Decode a JSON message into a Map and check if it contains
-     * all the required fields according to its type. */
+    /* Check if the JSON message contains all the required fields
+     * according to its type. */
     @Override
     public boolean willDecode(String string) {
-        boolean decodes = false;
-        /* Convert the message into a map */
-        messageMap = new HashMap<>();
-        JsonParser parser = Json.createParser(new StringReader(string));
-        while (parser.hasNext()) {
-            if (parser.next() == JsonParser.Event.KEY_NAME) {
-                String key = parser.getString();
-                parser.next();
-                String value = parser.getString();
-                messageMap.put(key, value);
-            }
+        Message msg = parse(string);
+        if (msg != null) {
+            lastString = string;
+            lastMessage = msg;
         }
-        /* Check the kind of message and if all fields are included */
-        Set keys = messageMap.keySet();
-        if (keys.contains("type")) {
-            switch (messageMap.get("type")) {
-                case "join":
-                    if (keys.contains("name"))
-                        decodes = true;
-                    break;
-                case "chat":
-                    String[] chatMsgKeys = {"name", "target", "message"};
-                    if (keys.containsAll(Arrays.asList(chatMsgKeys)))
-                        decodes = true;
-                    break;
+        return msg != null;
+    }
+    
+    /* Read the top level string fields of the message and build the
+     * message they describe, or return null if a field is missing. */
+    public static Message parse(String string) {
+        String type = null;
+        String name = null;
+        String target = null;
+        String message = null;
+        try (JsonParser parser =
+                parserFactory.createParser(new StringReader(string))) {
+            int depth = 0;
+            String key = null;
+            while (parser.hasNext()) {
+                JsonParser.Event event = parser.next();
+                switch (event) {
+                    case START_OBJECT:
+                    case START_ARRAY:
+                        depth++;
+                        key = null;
+                        break;
+                    case END_OBJECT:
+                    case END_ARRAY:
+                        depth--;
+                        break;
+                    case KEY_NAME:
+                        key = depth == 1 ? parser.getString() : null;
+                        break;
+                    case VALUE_STRING:
+                        if (depth == 1 && key != null) {
+                            switch (key) {
+                                case "type":
+                                    type = parser.getString();
+                                    break;
+                                case "name":
+                                    name = parser.getString();
+                                    break;
+                                case "target":
+                                    target = parser.getString();
+                                    break;
+                                case "message":
+                                    message = parser.getString();
+                                    break;
+                            }
+                        }
+                        key = null;
+                        break;
+                    default:
+                        key = null;
+                }
             }
+        } catch (JsonException e) {
+            return null;
+        }
+        if (type == null)
+            return null;
+        switch (type) {
+            case "join":
+                if (name != null)
+                    return new JoinMessage(name);
+                break;
+            case "chat":
+                if (name != null && target != null && message != null)
+                    return new ChatMessage(name, target, message);
+                break;
         }
-        return decodes;
+        return null;
     }
 }
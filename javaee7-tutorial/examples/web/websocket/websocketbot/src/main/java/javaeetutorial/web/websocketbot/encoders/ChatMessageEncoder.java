@@ -7,9 +7,8 @@
  */
 package javaeetutorial.web.websocketbot.encoders;
 
-import javaeetutorial.web.websocketbot.messages.ChatMessage;
 import java.io.StringWriter;
-import javax.json.Json;
+import javaeetutorial.web.websocketbot.messages.ChatMessage;
 import javax.json.stream.JsonGenerator;
 import javax.websocket.EncodeException;
 import javax.websocket.Encoder;
@@ -36,7 +35,7 @@ public class ChatMessageEncoder implements Encoder.Text<ChatMessage> {
     @Override
     public String encode(ChatMessage chatMessage) throws EncodeException {
         StringWriter swriter = new StringWriter();
-        try (JsonGenerator jsonGen = Json.createGenerator(swriter)) {
+        try (JsonGenerator jsonGen = JsonText.generator(swriter)) {
             jsonGen.writeStartObject()
                 .write("type", "chat")
                 .write("name", chatMessage.getName())
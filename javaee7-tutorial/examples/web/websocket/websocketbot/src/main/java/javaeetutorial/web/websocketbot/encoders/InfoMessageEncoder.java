@@ -7,9 +7,8 @@
  */
 package javaeetutorial.web.websocketbot.encoders;
 
-import javaeetutorial.web.websocketbot.messages.InfoMessage;
 import java.io.StringWriter;
-import javax.json.Json;
+import javaeetutorial.web.websocketbot.messages.InfoMessage;
 import javax.json.stream.JsonGenerator;
 import javax.websocket.EncodeException;
 import javax.websocket.Encoder;
@@ -33,7 +32,7 @@ public class InfoMessageEncoder implements Encoder.Text<InfoMessage> {
     @Override
     public String encode(InfoMessage joinMessage) throws EncodeException {
         StringWriter swriter = new StringWriter();
-        try (JsonGenerator jsonGen = Json.createGenerator(swriter)) {
+        try (JsonGenerator jsonGen = JsonText.generator(swriter)) {
             jsonGen.writeStartObject()
                 .write("type", "info")
                 .write("info", joinMessage.getInfo())
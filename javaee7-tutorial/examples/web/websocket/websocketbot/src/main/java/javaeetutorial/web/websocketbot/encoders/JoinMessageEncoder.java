@@ -7,9 +7,8 @@
  */
 package javaeetutorial.web.websocketbot.encoders;
 
-import javaeetutorial.web.websocketbot.messages.JoinMessage;
 import java.io.StringWriter;
-import javax.json.Json;
+import javaeetutorial.web.websocketbot.messages.JoinMessage;
 import javax.json.stream.JsonGenerator;
 import javax.websocket.EncodeException;
 import javax.websocket.Encoder;
@@ -33,7 +32,7 @@ public class JoinMessageEncoder implements Encoder.Text<JoinMessage> {
     @Override
     public String encode(JoinMessage joinMessage) throws EncodeException {
         StringWriter swriter = new StringWriter();
-        try (JsonGenerator jsonGen = Json.createGenerator(swriter)) {
+        try (JsonGenerator jsonGen = JsonText.generator(swriter)) {
             jsonGen.writeStartObject()
                 .write("type", "join")
                 .write("name", joinMessage.getName())
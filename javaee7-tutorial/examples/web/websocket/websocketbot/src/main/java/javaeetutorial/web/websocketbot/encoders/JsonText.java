@@ -0,0 +1,33 @@
+/**
+ * Copyright (c) 2014 Oracle and/or its affiliates. All rights reserved.
+ *
+ * You may not modify, use, reproduce, or distribute this software except in
+ * compliance with  the terms of the License at:
+ * http://java.net/projects/javaeetutorial/pages/BerkeleyLicense
+ */
+package javaeetutorial.web.websocketbot.encoders;
+
+import java.io.Writer;
+import javax.json.Json;
+import javax.json.stream.JsonGenerator;
+import javax.json.stream.JsonGeneratorFactory;
+
+/* Shared plumbing for the encoders.
+ * The generator factory is created once instead of looking up the JSON
+ * provider for every message. Usage:
+ *   StringWriter swriter = new StringWriter();
+ *   JsonGenerator gen = JsonText.generator(swriter);
+ *   ... write the object and close the generator ...
+ *   return swriter.toString();
+ */
+final class JsonText {
+    private static final JsonGeneratorFactory generatorFactory =
+            Json.createGeneratorFactory(null);
+    
+    private JsonText() { }
+    
+    /* Returns a generator writing to out */
+    static JsonGenerator generator(Writer out) {
+        return generatorFactory.createGenerator(out);
+    }
+}
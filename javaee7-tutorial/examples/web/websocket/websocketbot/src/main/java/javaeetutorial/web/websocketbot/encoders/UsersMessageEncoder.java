@@ -7,9 +7,8 @@
  */
 package javaeetutorial.web.websocketbot.encoders;
 
-import javaeetutorial.web.websocketbot.messages.UsersMessage;
 import java.io.StringWriter;
-import javax.json.Json;
+import javaeetutorial.web.websocketbot.messages.UsersMessage;
 import javax.json.stream.JsonGenerator;
 import javax.websocket.EncodeException;
 import javax.websocket.Encoder;
@@ -37,7 +36,7 @@ public class UsersMessageEncoder implements Encoder.Text<UsersMessage> {
     @Override
     public String encode(UsersMessage usersMessage) throws EncodeException {
         StringWriter swriter = new StringWriter();
-        try (JsonGenerator jsonGen = Json.createGenerator(swriter)) {
+        try (JsonGenerator jsonGen = JsonText.generator(swriter)) {
             jsonGen.writeStartObject()
                 .write("type", "users")
                 .writeStartArray("userlist");
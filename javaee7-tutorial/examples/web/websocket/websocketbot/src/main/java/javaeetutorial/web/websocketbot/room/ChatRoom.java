@@ -0,0 +1,115 @@
+/**
+ * Copyright (c) 2014 Oracle and/or its affiliates. All rights reserved.
+ *
+ * You may not modify, use, reproduce, or distribute this software except in
+ * compliance with  the terms of the License at:
+ * http://java.net/projects/javaeetutorial/pages/BerkeleyLicense
+ */
+package javaeetutorial.web.websocketbot.room;
+
+import javaeetutorial.web.websocketbot.encoders.ChatMessageEncoder;
+import javaeetutorial.web.websocketbot.encoders.InfoMessageEncoder;
+import javaeetutorial.web.websocketbot.encoders.JoinMessageEncoder;
+import javaeetutorial.web.websocketbot.encoders.UsersMessageEncoder;
+import javaeetutorial.web.websocketbot.messages.ChatMessage;
+import javaeetutorial.web.websocketbot.messages.InfoMessage;
+import javaeetutorial.web.websocketbot.messages.JoinMessage;
+import javaeetutorial.web.websocketbot.messages.UsersMessage;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+import javax.enterprise.context.ApplicationScoped;
+import javax.websocket.EncodeException;
+import javax.websocket.Session;
+
+/* The chat room shared by all the endpoint instances.
+ * A message is encoded to text once and then queued on every member's
+ * SessionQueue, so a broadcast never waits on a client and never takes a
+ * lock shared with other broadcasts. The user list is kept up to date on
+ * join and leave instead of being rebuilt from the open sessions. */
+@ApplicationScoped
+public class ChatRoom {
+    private static final Logger logger = Logger.getLogger("ChatRoom");
+    public static final String BOT_NAME = "Duke";
+
+    /* Message queue of every open session, by session id */
+    private final Map<String, SessionQueue> members = new ConcurrentHashMap<>();
+    /* Names of the users who joined, by session id */
+    private final Map<String, String> roster = new ConcurrentHashMap<>();
+    /* Serializes roster changes so users messages go out in order */
+    private final Object rosterLock = new Object();
+
+    private final JoinMessageEncoder joinEncoder = new JoinMessageEncoder();
+    private final ChatMessageEncoder chatEncoder = new ChatMessageEncoder();
+    private final InfoMessageEncoder infoEncoder = new InfoMessageEncoder();
+    private final UsersMessageEncoder usersEncoder = new UsersMessageEncoder();
+
+    /* Register a new connection, it receives broadcasts from now on */
+    public void open(Session session) {
+        members.put(session.getId(), new SessionQueue(session));
+    }
+
+    /* Add the user to the roster and notify everybody */
+    public void join(Session session, String name) {
+        synchronized (rosterLock) {
+            roster.put(session.getId(), name);
+            broadcast(new InfoMessage(name + " has joined the chat"));
+            broadcast(new ChatMessage(BOT_NAME, name, "Hi there!!"));
+            broadcast(new UsersMessage(getUserList()));
+        }
+    }
+
+    /* Remove the connection and, if the user had joined, notify everybody */
+    public void close(Session session) {
+        members.remove(session.getId());
+        synchronized (rosterLock) {
+            String name = roster.remove(session.getId());
+            if (name != null) {
+                broadcast(new InfoMessage(name + " has left the chat"));
+                broadcast(new UsersMessage(getUserList()));
+            }
+        }
+    }
+
+    /* Encode the message once and queue it for every member */
+    public void broadcast(Object msg) {
+        String text;
+        try {
+            text = encode(msg);
+        } catch (EncodeException e) {
+            logger.log(Level.INFO, e.toString());
+            return;
+        }
+        for (SessionQueue queue : members.values()) {
+            if (queue.getSession().isOpen())
+                queue.offer(text);
+            else
+                members.remove(queue.getSession().getId());
+        }
+        logger.log(Level.FINE, "Sent: {0}", msg.toString());
+    }
+
+    /* Returns the bot followed by the users who joined */
+    public List<String> getUserList() {
+        List<String> users = new ArrayList<>(roster.size() + 1);
+        users.add(BOT_NAME);
+        users.addAll(roster.values());
+        return users;
+    }
+
+    /* Pick the encoder based on the message type */
+    private String encode(Object msg) throws EncodeException {
+        if (msg instanceof ChatMessage)
+            return chatEncoder.encode((ChatMessage) msg);
+        if (msg instanceof InfoMessage)
+            return infoEncoder.encode((InfoMessage) msg);
+        if (msg instanceof UsersMessage)
+            return usersEncoder.encode((UsersMessage) msg);
+        if (msg instanceof JoinMessage)
+            return joinEncoder.encode((JoinMessage) msg);
+        throw new EncodeException(msg, "[ChatRoom] No encoder.");
+    }
+}
@@ -0,0 +1,100 @@
+/**
+ * Copyright (c) 2014 Oracle and/or its affiliates. All rights reserved.
+ *
+ * You may not modify, use, reproduce, or distribute this software except in
+ * compliance with  the terms of the License at:
+ * http://java.net/projects/javaeetutorial/pages/BerkeleyLicense
+ */
+package javaeetutorial.web.websocketbot.room;
+
+import java.io.IOException;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+import javax.websocket.CloseReason;
+import javax.websocket.SendHandler;
+import javax.websocket.SendResult;
+import javax.websocket.Session;
+
+/* Bounded queue of encoded messages for one session.
+ * Messages are sent with the asynchronous remote, one at a time; the
+ * completion handler of a send starts the next one. A client that falls
+ * more than MAX_PENDING messages behind is disconnected instead of
+ * holding up everybody else. */
+public class SessionQueue implements SendHandler {
+    private static final Logger logger = Logger.getLogger("SessionQueue");
+    public static final int MAX_PENDING = 256;
+
+    private final Session session;
+    private final Queue<String> pending = new ConcurrentLinkedQueue<>();
+    private final AtomicInteger size = new AtomicInteger();
+    private final AtomicBoolean sending = new AtomicBoolean();
+
+    public SessionQueue(Session session) {
+        this.session = session;
+    }
+
+    public Session getSession() {
+        return session;
+    }
+
+    /* Queue an encoded message, never blocks */
+    public void offer(String text) {
+        if (size.incrementAndGet() > MAX_PENDING) {
+            size.decrementAndGet();
+            logger.log(Level.INFO, "Dropping slow session {0}", session.getId());
+            close(new CloseReason(CloseReason.CloseCodes.TRY_AGAIN_LATER,
+                    "Too many pending messages"));
+            return;
+        }
+        pending.offer(text);
+        sendNext();
+    }
+
+    @Override
+    public void onResult(SendResult result) {
+        if (!result.isOK()) {
+            logger.log(Level.INFO, "Send failed ({0})",
+                    result.getException().toString());
+            pending.clear();
+            size.set(0);
+            close(new CloseReason(CloseReason.CloseCodes.UNEXPECTED_CONDITION,
+                    "Send failed"));
+            return;
+        }
+        sending.set(false);
+        sendNext();
+    }
+
+    /* Send the next message unless a send is already in progress */
+    private void sendNext() {
+        while (!pending.isEmpty() && sending.compareAndSet(false, true)) {
+            String text = pending.poll();
+            if (text == null) {
+                sending.set(false);
+                continue;
+            }
+            size.decrementAndGet();
+            if (!session.isOpen()) {
+                pending.clear();
+                size.set(0);
+                sending.set(false);
+                return;
+            }
+            session.getAsyncRemote().sendText(text, this);
+            return;
+        }
+    }
+
+    private void close(CloseReason reason) {
+        try {
+            if (session.isOpen())
+                session.close(reason);
+        } catch (IOException e) {
+            logger.log(Level.INFO, e.toString());
+        }
+    }
+}